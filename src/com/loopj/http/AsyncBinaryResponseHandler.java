@@ -0,0 +1,36 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * An {@link AsyncHttpResponseHandler} which receives the response body as a
+ * byte array. Requests made with one of these handlers can be answered from
+ * a {@link BinaryResponseCache}.
+ */
+public interface AsyncBinaryResponseHandler extends AsyncHttpResponseHandler {
+	public void sendSuccessMessage(int statusCode, byte[] responseBody);
+
+	/**
+	 * Returns true if the handler takes the response as a success. Only
+	 * accepted responses are stored in the {@link BinaryResponseCache}.
+	 */
+	public boolean acceptsResponse(HttpResponse response);
+}
@@ -20,25 +20,24 @@ package com.loopj.http;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
+import java.io.OutputStream;
+import java.net.URI;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
-import org.apache.http.HttpVersion;
+import org.apache.http.HttpStatus;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CookieStore;
@@ -50,22 +49,18 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAddCookies;
 import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.conn.params.ConnPerRouteBean;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHttpRequest;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
-import org.apache.http.protocol.SyncBasicHttpContext;
 
 
 /**
@@ -90,48 +85,43 @@ import org.apache.http.protocol.SyncBasicHttpContext;
 public class AsyncHttpClient {
     private static final String VERSION = "1.4.1";
 
-    private static final int DEFAULT_MAX_CONNECTIONS = 10;
-    private static final int DEFAULT_SOCKET_TIMEOUT = 10 * 1000;
     private static final int DEFAULT_MAX_RETRIES = 5;
-    private static final int DEFAULT_SOCKET_BUFFER_SIZE = 8192;
     private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
     private static final String ENCODING_GZIP = "gzip";
 
-    private static int maxConnections = DEFAULT_MAX_CONNECTIONS;
-    private static int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
-
+    private final HttpEngine engine;
     private final DefaultHttpClient httpClient;
     private final HttpContext httpContext;
     private ThreadPoolExecutor threadPool;
-    private final Map<Object, List<WeakReference<Future<?>>>> requestMap;
+    private final CancellationRegistry cancellationRegistry = new CancellationRegistry();
     private final Map<String, String> clientHeaderMap;
+    private ResponseCache responseCache;
+    private CachePolicy cachePolicy = CachePolicy.REVALIDATE;
+    private BinaryResponseCache binaryResponseCache;
+    private HedgePolicy hedgePolicy = new HedgePolicy();
+    private RateLimiter rateLimiter;
+    private EventListener eventListener = EventListener.NONE;
 
 
     /**
-     * Creates a new AsyncHttpClient.
+     * Creates a new AsyncHttpClient with its own {@link HttpEngine}.
      */
     public AsyncHttpClient() {
-        BasicHttpParams httpParams = new BasicHttpParams();
-
-        ConnManagerParams.setTimeout(httpParams, socketTimeout);
-        ConnManagerParams.setMaxConnectionsPerRoute(httpParams, new ConnPerRouteBean(maxConnections));
-        ConnManagerParams.setMaxTotalConnections(httpParams, DEFAULT_MAX_CONNECTIONS);
-
-        HttpConnectionParams.setSoTimeout(httpParams, socketTimeout);
-        HttpConnectionParams.setConnectionTimeout(httpParams, socketTimeout);
-        HttpConnectionParams.setTcpNoDelay(httpParams, true);
-        HttpConnectionParams.setSocketBufferSize(httpParams, DEFAULT_SOCKET_BUFFER_SIZE);
-
-        HttpProtocolParams.setVersion(httpParams, HttpVersion.HTTP_1_1);
-        HttpProtocolParams.setUserAgent(httpParams, String.format("android-async-http/%s (http://loopj.com/android-async-http)", VERSION));
+        this(new HttpEngine());
+    }
 
-        SchemeRegistry schemeRegistry = new SchemeRegistry();
-        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
-        ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(httpParams, schemeRegistry);
+    /**
+     * Creates a new AsyncHttpClient using a shared {@link HttpEngine}. The
+     * client has its own headers, credentials, cookies and timeouts, but
+     * shares connections and threads with every other client of the engine.
+     * @param engine the engine to send requests with.
+     */
+    public AsyncHttpClient(HttpEngine engine) {
+        this.engine = engine;
+        HttpParams httpParams = engine.createClientParams(String.format("android-async-http/%s (http://loopj.com/android-async-http)", VERSION));
 
-        httpContext = new SyncBasicHttpContext(new BasicHttpContext());
-        httpClient = new DefaultHttpClient(cm, httpParams);
+        httpContext = new SharedHttpContext();
+        httpClient = new DefaultHttpClient(engine.getConnectionManager(), httpParams);
         httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
             public void process(HttpRequest request, HttpContext context) {
                 if (!request.containsHeader(HEADER_ACCEPT_ENCODING)) {
@@ -161,11 +151,15 @@ public class AsyncHttpClient {
             }
         });
 
-        httpClient.setHttpRequestRetryHandler(new RetryHandler(DEFAULT_MAX_RETRIES));
+        // Look cookies up by domain instead of filtering the whole jar per request
+        httpClient.removeRequestInterceptorByClass(RequestAddCookies.class);
+        httpClient.addRequestInterceptor(new RequestAddIndexedCookies());
+
+        httpClient.setKeepAliveStrategy(engine.getKeepAliveStrategy());
+        httpClient.addRequestInterceptor(engine.getStatsInterceptor());
 
-        threadPool = (ThreadPoolExecutor)Executors.newCachedThreadPool();
+        httpClient.setHttpRequestRetryHandler(new RetryHandler(DEFAULT_MAX_RETRIES));
 
-        requestMap = new WeakHashMap<Object, List<WeakReference<Future<?>>>>();
         clientHeaderMap = new HashMap<String, String>();
     }
 
@@ -178,10 +172,22 @@ public class AsyncHttpClient {
         return this.httpClient;
     }
 
+    /**
+     * Get the {@link HttpEngine} this client sends requests with, which can
+     * be passed to {@link #AsyncHttpClient(HttpEngine)} to create more
+     * clients sharing its connections.
+     */
+    public HttpEngine getEngine() {
+        return this.engine;
+    }
+
     /**
      * Get the underlying HttpContext instance. This is useful for getting 
      * and setting fine-grained settings for requests by accessing the
      * context's attributes such as the CookieStore.
+     * <p>
+     * Each request runs with its own context which inherits the attributes
+     * of this one, attributes set by a request are not visible here.
      */
     public HttpContext getHttpContext() {
         return this.httpContext;
@@ -196,9 +202,83 @@ public class AsyncHttpClient {
         return this;
     }
 
+    /**
+     * Sets an optional ResponseCache used to revalidate GET requests. Cached
+     * responses are revalidated with If-None-Match/If-Modified-Since headers,
+     * and a 304 Not Modified response is handed to the response handler as
+     * the cached response, so handlers don't need to know it happened.
+     * @param responseCache the ResponseCache implementation to use, for example a {@link MemoryResponseCache}, or null to disable caching.
+     */
+    public AsyncHttpClient setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    /**
+     * Sets the default policy for using responses stored in the ResponseCache.
+     * By default, {@link CachePolicy#REVALIDATE} is used. The policy can be
+     * overridden for a single request with {@link Transaction#setCachePolicy(CachePolicy)}.
+     * @param cachePolicy the policy to use.
+     */
+    public AsyncHttpClient setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    /**
+     * Sets an optional cache for binary response bodies, such as images.
+     * GET requests made with an {@link AsyncBinaryResponseHandler} are
+     * answered straight from the cache while a fresh copy of the url is
+     * stored, without scheduling a request.
+     * @param binaryResponseCache the cache to use, or null to disable caching.
+     */
+    public AsyncHttpClient setBinaryResponseCache(BinaryResponseCache binaryResponseCache) {
+        this.binaryResponseCache = binaryResponseCache;
+        return this;
+    }
+
+    /**
+     * Sets the policy deciding when hedged GET requests send a second copy
+     * and how many of them may. The policy tracks the latency of each host,
+     * so it should be shared rather than created per request.
+     * @param hedgePolicy the policy to use.
+     * @see Transaction#setHedged(boolean)
+     */
+    public AsyncHttpClient setHedgePolicy(HedgePolicy hedgePolicy) {
+        if(hedgePolicy == null) {
+            throw new IllegalArgumentException("Hedge policy may not be null");
+        }
+        this.hedgePolicy = hedgePolicy;
+        return this;
+    }
+
+    /**
+     * Sets an optional rate limiter pacing the requests of this client.
+     * Requests wait for the limiter before they are queued on the thread
+     * pool, so waiting doesn't hold a thread.
+     * @param rateLimiter the limiter to use, or null to send requests as soon as possible.
+     */
+    public AsyncHttpClient setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Sets the listener told about each phase of this client's requests,
+     * for breaking their latency down.
+     * @param eventListener the listener to use, or {@link EventListener#NONE}.
+     */
+    public AsyncHttpClient setEventListener(EventListener eventListener) {
+        if(eventListener == null) {
+            throw new IllegalArgumentException("Event listener may not be null");
+        }
+        this.eventListener = eventListener;
+        return this;
+    }
+
     /**
      * Overrides the threadpool implementation used when queuing/pooling
-     * requests. By default, Executors.newCachedThreadPool() is used.
+     * requests. By default, the {@link HttpEngine}'s threadpool is used.
      * @param threadPool an instance of {@link ThreadPoolExecutor} to use for queuing/pooling requests.
      */
     public AsyncHttpClient setThreadPool(ThreadPoolExecutor threadPool) {
@@ -230,11 +310,12 @@ public class AsyncHttpClient {
 
     /**
      * Sets the SSLSocketFactory to user when making requests. By default,
-     * a new, default SSLSocketFactory is used.
+     * a new, default SSLSocketFactory is used. The socket factory belongs to
+     * the {@link HttpEngine}, so this affects every client sharing it.
      * @param sslSocketFactory the socket factory to use for https requests.
      */
     public AsyncHttpClient setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
-        this.httpClient.getConnectionManager().getSchemeRegistry().register(new Scheme("https", sslSocketFactory, 443));
+        engine.setSSLSocketFactory(sslSocketFactory);
         return this;
     }
     
@@ -274,6 +355,34 @@ public class AsyncHttpClient {
         return this;
     }
 
+    /**
+     * Opens connections to a host ahead of the first request, so DNS lookup,
+     * TCP connect and the TLS handshake happen off the critical path. The
+     * connections are opened in the background and parked in the pool,
+     * where the next requests to the host pick them up.
+     * @param host the host to connect to, optionally with a scheme and port like <code>http://example.com:8080</code>. Without a scheme, https is assumed.
+     * @param count the number of connections to open, capped at the per-host connection limit.
+     */
+    public void preconnect(String host, int count) {
+        HttpHost target;
+        int schemeEnd = host.indexOf("://");
+        if(schemeEnd >= 0) {
+            URI uri = URI.create(host);
+            target = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+        } else {
+            target = new HttpHost(host, -1, "https");
+        }
+
+        HttpRequest request = new BasicHttpRequest("GET", "/");
+        request.setParams(httpClient.getParams());
+        try {
+            HttpRoute route = httpClient.getRoutePlanner().determineRoute(target, request, httpContext);
+            engine.preconnect(route, count, httpClient.getParams(), threadPool != null ? threadPool : engine.getThreadPool());
+        } catch(HttpException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Cancels any pending (or potentially active) requests associated with the
      * passed cancelKey.
@@ -282,21 +391,47 @@ public class AsyncHttpClient {
      * cancelKey. This method is intended to be used in the onDestroy
      * method of your android activities to destroy all requests which are no
      * longer required.
+     * <p>
+     * Pending requests are taken off the queue. Active requests are aborted,
+     * which closes their connection even in the middle of a download, and
+     * make no callbacks other than onFinish. Requests of cancelKeys nested
+     * inside this one with {@link #addCancelScope} are cancelled as well.
      *
      * @param cancelKey the Object (for instance an android Context instance) associated to the request.
      * @param mayInterruptIfRunning specifies if active requests should be cancelled along with pending requests.
      */
     public void cancelRequests(Object cancelKey, boolean mayInterruptIfRunning) {
-        List<WeakReference<Future<?>>> requestList = requestMap.get(cancelKey);
-        if(requestList != null) {
-            for(WeakReference<Future<?>> requestRef : requestList) {
-                Future<?> request = requestRef.get();
-                if(request != null) {
-                    request.cancel(mayInterruptIfRunning);
-                }
-            }
-        }
-        requestMap.remove(cancelKey);
+        cancellationRegistry.cancel(cancelKey, mayInterruptIfRunning);
+    }
+
+    /**
+     * Nests the requests of one cancelKey inside those of another, so
+     * cancelling the parent cancels them as well. Scopes can be nested any
+     * number of levels deep, for example an activity holding fragments.
+     * <p>
+     * For example:
+     * <p>
+     * <pre>
+     * client.addCancelScope(fragment, activity);
+     * client.get(fragment, url, handler);
+     * client.cancelRequests(activity, true); // cancels the fragment's request
+     * </pre>
+     *
+     * @param cancelKey the Object whose requests are nested.
+     * @param parentKey the Object to nest them inside, or null to undo the nesting.
+     */
+    public void addCancelScope(Object cancelKey, Object parentKey) {
+        cancellationRegistry.setParent(cancelKey, parentKey);
+    }
+
+    /**
+     * Returns the number of requests in flight for a cancelKey, including
+     * those of all cancelKeys nested inside it.
+     *
+     * @param cancelKey the Object (for instance an android Context instance) associated to the requests.
+     */
+    public int getRequestCount(Object cancelKey) {
+        return cancellationRegistry.getRequestCount(cancelKey);
     }
 
 
@@ -325,12 +460,34 @@ public class AsyncHttpClient {
 
     	private String contentType = null;
     	public Transaction setContentType(String contentType){this.contentType=contentType;return this;}
+
+    	private CachePolicy cachePolicy = AsyncHttpClient.this.cachePolicy;
+    	public Transaction setCachePolicy(CachePolicy cachePolicy){this.cachePolicy=cachePolicy;return this;}
+
+    	private long timeoutMillis = 0;
+    	/**
+    	 * Sets the overall time budget for the request, counted from when it
+    	 * is sent and shared by queueing, connecting, reading and retries.
+    	 * Once it runs out the request is aborted and fails with a
+    	 * {@link DeadlineExceededException}.
+    	 * @param timeoutMillis the budget in milliseconds, or 0 for none.
+    	 */
+    	public Transaction setDeadline(long timeoutMillis){this.timeoutMillis=timeoutMillis;return this;}
+    	private long deadline() {return timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;}
+
+    	private boolean hedged = false;
+    	/**
+    	 * Hedges a GET request: if it has no response within the delay of the
+    	 * client's {@link HedgePolicy}, a second copy is sent and the first
+    	 * response wins. Only use this for idempotent requests.
+    	 */
+    	public Transaction setHedged(boolean hedged){this.hedged=hedged;return this;}
     	
     	public Transaction get(String url, AsyncHttpResponseHandler responseHandler){
     		if (entity!=null) throw new IllegalArgumentException("Cannot setEntity for a get");
     		HttpUriRequest request = new HttpGet(getUrlWithQueryString(url, params));
             if(headers != null) request.setHeaders(headers);
-            sendRequest(httpClient, httpContext, request, contentType, responseHandler, cancelKey);
+            sendRequest(httpClient, httpContext, request, contentType, responseHandler, cancelKey, cachePolicy, deadline(), hedged ? hedgePolicy : null);
     		return this;
     	}
     	public Transaction post(String url, AsyncHttpResponseHandler responseHandler){
@@ -339,7 +496,7 @@ public class AsyncHttpClient {
             if(entity != null) request = addEntityToRequestBase(request, entity);
             if(params != null) request.setEntity(paramsToEntity(params));
             if(headers != null) request.setHeaders(headers);
-            sendRequest(httpClient, httpContext, request, contentType, responseHandler, cancelKey);
+            sendRequest(httpClient, httpContext, request, contentType, responseHandler, cancelKey, cachePolicy, deadline(), null);
     		return this;
     	}
     	public Transaction put(String url, AsyncHttpResponseHandler responseHandler){
@@ -347,7 +504,7 @@ public class AsyncHttpClient {
     		if (params!=null) entity = paramsToEntity(params);
             HttpEntityEnclosingRequestBase request = addEntityToRequestBase(new HttpPut(url), entity);
             if(headers != null) request.setHeaders(headers);
-            sendRequest(httpClient, httpContext, request, contentType, responseHandler, cancelKey);
+            sendRequest(httpClient, httpContext, request, contentType, responseHandler, cancelKey, cachePolicy, deadline(), null);
     		return this;
     	}
     	public Transaction delete(String url, AsyncHttpResponseHandler responseHandler){
@@ -355,7 +512,7 @@ public class AsyncHttpClient {
     		if (params!=null) throw new IllegalArgumentException("Cannot setParams for a delete");
             final HttpDelete request = new HttpDelete(url);
             if(headers != null) request.setHeaders(headers);
-            sendRequest(httpClient, httpContext, request, null, responseHandler, cancelKey);
+            sendRequest(httpClient, httpContext, request, null, responseHandler, cancelKey, cachePolicy, deadline(), null);
     		return this;
     	}
     }
@@ -680,25 +837,75 @@ public class AsyncHttpClient {
 
 
     // Private stuff
-    private void sendRequest(DefaultHttpClient client, HttpContext httpContext, HttpUriRequest uriRequest, String contentType, AsyncHttpResponseHandler responseHandler, Object cancelKey) {
+    private void sendRequest(DefaultHttpClient client, HttpContext httpContext, HttpUriRequest uriRequest, String contentType, AsyncHttpResponseHandler responseHandler, Object cancelKey, CachePolicy cachePolicy, long deadline, HedgePolicy hedgePolicy) {
         if(contentType != null) {
             uriRequest.addHeader("Content-Type", contentType);
         }
 
-        Future<?> request = threadPool.submit(new AsyncHttpRequest(client, httpContext, uriRequest, responseHandler));
+        // Requests write attributes such as the current request into their
+        // own context, and only read shared ones like the cookie store
+        HttpContext requestContext = new BasicHttpContext(httpContext);
+        AsyncHttpRequest asyncRequest = new AsyncHttpRequest(client, requestContext, uriRequest, responseHandler)
+                .setResponseCache(responseCache)
+                .setCachePolicy(cachePolicy)
+                .setRevalidator(engine.getRevalidator())
+                .setHttp2Transport(engine.getHttp2Transport());
+        if(engine.isAdaptiveConcurrency()) {
+            asyncRequest.setConcurrencyLimiter(engine.getConcurrencyLimiter());
+        }
+        asyncRequest.setCircuitBreaker(engine.getCircuitBreaker());
+        asyncRequest.setEventListener(eventListener);
+        if(deadline > 0) {
+            asyncRequest.setDeadline(deadline, engine.getTimerWheel());
+        }
 
-        if(cancelKey != null) {
-            // Add request to request map
-            List<WeakReference<Future<?>>> requestList = requestMap.get(cancelKey);
-            if(requestList == null) {
-                requestList = new LinkedList<WeakReference<Future<?>>>();
-                requestMap.put(cancelKey, requestList);
-            }
+        Executor executor = threadPool != null ? threadPool : engine.getThreadPool();
+        if(hedgePolicy != null) {
+            asyncRequest.setHedgePolicy(hedgePolicy, executor, engine.getTimerWheel());
+        }
 
-            requestList.add(new WeakReference<Future<?>>(request));
+        if(responseHandler instanceof AsyncBinaryResponseHandler) {
+            asyncRequest.setBinaryRequest(true);
+            if(binaryResponseCache != null && "GET".equals(uriRequest.getMethod())) {
+                String url = uriRequest.getURI().toString();
+                byte[] body = binaryResponseCache.get(url);
+                if(body != null) {
+                    AsyncBinaryResponseHandler binaryHandler = (AsyncBinaryResponseHandler) responseHandler;
+                    binaryHandler.sendStartMessage();
+                    binaryHandler.sendSuccessMessage(HttpStatus.SC_OK, body);
+                    binaryHandler.sendFinishMessage();
+                    return;
+                }
+                asyncRequest.setBinaryResponseCache(binaryResponseCache);
+            }
+        }
 
-            // TODO: Remove dead weakrefs from requestLists?
+        final RequestFuture request = new RequestFuture(asyncRequest, executor);
+        if(deadline > 0) {
+            request.setDeadline(deadline, engine.getTimerWheel());
         }
+        if(cancelKey != null) {
+            cancellationRegistry.register(cancelKey, request);
+        }
+        eventListener.callQueued(asyncRequest);
+        Executor dispatcher = executor;
+        if(engine.isAdaptiveConcurrency()) {
+            // Requests wait for their permit before they reach the executor
+            final ConcurrencyLimiter limiter = engine.getConcurrencyLimiter();
+            final String route = AsyncHttpRequest.getRoute(uriRequest.getURI());
+            final Executor pool = executor;
+            dispatcher = new Executor() {
+                public void execute(Runnable command) {
+                    limiter.submit(route, request, pool);
+                }
+            };
+        }
+        if(rateLimiter != null) {
+            rateLimiter.submit(uriRequest.getURI(), request, dispatcher, engine.getTimerWheel());
+        } else {
+            dispatcher.execute(request);
+        }
+
     }
 
     private String getUrlWithQueryString(String url, RequestParams params) {
@@ -729,13 +936,38 @@ public class AsyncHttpClient {
     }
 
     private static class InflatingEntity extends HttpEntityWrapper {
+        private InputStream content;
+
         public InflatingEntity(HttpEntity wrapped) {
             super(wrapped);
         }
 
         @Override
         public InputStream getContent() throws IOException {
-            return new GZIPInputStream(wrappedEntity.getContent());
+            // A streamed body can only be read once, hand out the same stream
+            // rather than a second one over the drained body
+            if(!wrappedEntity.isStreaming()) {
+                return new GZIPInputStream(wrappedEntity.getContent());
+            }
+            if(content == null) {
+                content = new GZIPInputStream(wrappedEntity.getContent());
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            // The wrapper would write the compressed body
+            InputStream instream = getContent();
+            try {
+                byte[] buffer = new byte[4096];
+                int l;
+                while((l = instream.read(buffer)) != -1) {
+                    outstream.write(buffer, 0, l);
+                }
+            } finally {
+                instream.close();
+            }
         }
 
         @Override
@@ -19,14 +19,33 @@
 package com.loopj.http;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
+import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
 
 public class AsyncHttpRequest implements Runnable {
@@ -36,6 +55,25 @@ public class AsyncHttpRequest implements Runnable {
     private final AsyncHttpResponseHandler responseHandler;
     private boolean isBinaryRequest = false;
     private int executionCount;
+    private ResponseCache responseCache;
+    private CachePolicy cachePolicy = CachePolicy.REVALIDATE;
+    private Revalidator revalidator;
+    private CacheEntry cachedEntry;
+    private CacheStatus cacheStatus = CacheStatus.NETWORK;
+    private BinaryResponseCache binaryResponseCache;
+    private Http2Transport http2Transport;
+    private volatile boolean cancelled;
+    private long deadline;
+    private TimerWheel timerWheel;
+    private volatile boolean deadlineExceeded;
+    private HedgePolicy hedgePolicy;
+    private Executor hedgeExecutor;
+    private volatile Hedge hedge;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private final AtomicReference<ConcurrencyLimiter.Permit> permit = new AtomicReference<ConcurrencyLimiter.Permit>();
+    private CircuitBreaker circuitBreaker;
+    private EventListener eventListener = EventListener.NONE;
+    private boolean callEnded;
     
     public boolean isBinaryRequest() {
 		return isBinaryRequest;
@@ -46,6 +84,48 @@ public class AsyncHttpRequest implements Runnable {
 		return this;
 	}
 
+    /**
+     * Sets the cache used to revalidate this request. Only GET requests
+     * which don't already carry their own validators are revalidated.
+     */
+    public AsyncHttpRequest setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    /**
+     * Sets the cache successful binary GET responses are stored in.
+     */
+    public AsyncHttpRequest setBinaryResponseCache(BinaryResponseCache binaryResponseCache) {
+        this.binaryResponseCache = binaryResponseCache;
+        return this;
+    }
+
+    /**
+     * Sets how a stored response is used, see {@link CachePolicy}.
+     */
+    public AsyncHttpRequest setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    /**
+     * Sets what refreshes stale responses in the background under
+     * {@link CachePolicy#STALE_WHILE_REVALIDATE}.
+     */
+    AsyncHttpRequest setRevalidator(Revalidator revalidator) {
+        this.revalidator = revalidator;
+        return this;
+    }
+
+    /**
+     * Sets the transport used to try the request over HTTP/2 first.
+     */
+    AsyncHttpRequest setHttp2Transport(Http2Transport http2Transport) {
+        this.http2Transport = http2Transport;
+        return this;
+    }
+
 	public AsyncHttpRequest(AbstractHttpClient client, HttpContext context, HttpUriRequest request, AsyncHttpResponseHandler responseHandler) {
         this.client = client;
         this.context = context;
@@ -53,58 +133,554 @@ public class AsyncHttpRequest implements Runnable {
         this.responseHandler = responseHandler;
     }
 
+    /**
+     * Cancels the request. If it is being sent or its response read, the
+     * connection is aborted and released, no retries are made, and no
+     * callbacks other than onFinish are made.
+     */
+    public void cancel() {
+        cancelled = true;
+        abort();
+    }
+
+    private void abort() {
+        Hedge h = hedge;
+        if(h != null) {
+            h.abort();
+        }
+        abort(request);
+    }
+
+    private static void abort(HttpUriRequest request) {
+        try {
+            request.abort();
+        } catch(UnsupportedOperationException e) {
+            // not abortable, the request runs to the end
+        }
+    }
+
+    /**
+     * Sets the time by which the request, retries included, must have
+     * received its response. Each attempt's timeouts are capped at what is
+     * left, and the request is aborted when the deadline passes.
+     * @param deadline the deadline in milliseconds since the epoch.
+     * @param timerWheel the timer to enforce the deadline with.
+     */
+    AsyncHttpRequest setDeadline(long deadline, TimerWheel timerWheel) {
+        this.deadline = deadline;
+        this.timerWheel = timerWheel;
+        return this;
+    }
+
+    /**
+     * Hedges the request: if no response arrived within the policy's delay,
+     * a copy is sent on the executor and the first response wins. Only GET
+     * requests are hedged.
+     * @param hedgePolicy the delay and budget for hedges.
+     * @param executor the executor hedges are sent on.
+     * @param timerWheel the timer starting the hedges.
+     */
+    AsyncHttpRequest setHedgePolicy(HedgePolicy hedgePolicy, Executor executor, TimerWheel timerWheel) {
+        if("GET".equals(request.getMethod())) {
+            this.hedgePolicy = hedgePolicy;
+            this.hedgeExecutor = executor;
+            this.timerWheel = timerWheel;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the limiter the request's permit comes from, and which hedges
+     * take their own permits from.
+     */
+    AsyncHttpRequest setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        return this;
+    }
+
+    /**
+     * Hands the request the permit it was admitted with, held until it is
+     * done.
+     */
+    void setPermit(ConcurrencyLimiter.Permit permit) {
+        this.permit.set(permit);
+    }
+
+    /**
+     * Hands the request's permit back, if it still holds one.
+     */
+    void releasePermit() {
+        ConcurrencyLimiter.Permit p = permit.getAndSet(null);
+        if(p != null) {
+            concurrencyLimiter.release(p);
+        }
+    }
+
+    /**
+     * Sets the circuit breaker consulted before every attempt, and told
+     * how each one went.
+     */
+    AsyncHttpRequest setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /**
+     * Sets the listener told about each phase of the request.
+     */
+    AsyncHttpRequest setEventListener(EventListener eventListener) {
+        this.eventListener = eventListener;
+        if(eventListener != EventListener.NONE) {
+            // Lets the socket factories and the retry handler find the request
+            request.getParams().setParameter(EventListener.CALL, this);
+            context.setAttribute(EventListener.CALL, this);
+        }
+        return this;
+    }
+
+    EventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * Returns the request being sent.
+     */
+    public HttpUriRequest getRequest() {
+        return request;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     public void run() {
+        TimerWheel.Timeout deadlineTimeout = null;
+        eventListener.callStart(this);
+        bindDelivery(this);
         try {
             if(responseHandler != null){
                 responseHandler.sendStartMessage();
             }
 
-            makeRequestWithRetries();
+            if(!deliverCachedResponse()) {
+                if(circuitBreaker != null) {
+                    context.setAttribute(RetryHandler.CIRCUIT_BREAKER, circuitBreaker);
+                    context.setAttribute(RetryHandler.ROUTE, getRoute(request.getURI()));
+                }
+                if(deadline > 0) {
+                    context.setAttribute(RetryHandler.DEADLINE, deadline);
+                    deadlineTimeout = timerWheel.schedule(new Runnable() {
+                        public void run() {
+                            deadlineExceeded = true;
+                            abort();
+                        }
+                    }, deadline - System.currentTimeMillis());
+                }
+                try {
+                    makeRequestWithRetries();
+                } catch(ConnectException e) {
+                    if(!deliverStaleOnError()) {
+                        throw e;
+                    }
+                } catch(DeadlineExceededException e) {
+                    if(!deliverStaleOnError()) {
+                        throw e;
+                    }
+                } catch(CircuitOpenException e) {
+                    if(!deliverStaleOnError()) {
+                        throw e;
+                    }
+                } finally {
+                    if(deadlineTimeout != null) {
+                        deadlineTimeout.cancel();
+                    }
+                }
+            }
 
             if(responseHandler != null) {
                 responseHandler.sendFinishMessage();
             }
+            endCall(null);
         } catch (IOException e) {
+            endCall(e);
             if(responseHandler != null) {
+                responseHandler.sendFinishMessage();
+                if(cancelled) {
+                    return;
+                }
+                if(this.isBinaryRequest) {
+                    responseHandler.sendFailureMessage(e, (byte[]) null);
+                } else {
+                    responseHandler.sendFailureMessage(e, (String) null);
+                }
+            }
+        } catch(RuntimeException e) {
+            // Listeners still hear the call is over when a handler throws
+            endCall(new IOException("Request failed: " + e, e));
+            throw e;
+        } finally {
+            bindDelivery(null);
+            releasePermit();
+        }
+    }
+
+    // Tells handlers which deliver on another thread that this thread now
+    // sends for this request, so a handler shared between requests can time
+    // each delivery against the right one
+    private void bindDelivery(AsyncHttpRequest call) {
+        if(eventListener != EventListener.NONE && responseHandler instanceof EventListener.DeliveryAware) {
+            ((EventListener.DeliveryAware) responseHandler).setEventListener(eventListener, call);
+        }
+    }
+
+    // Tells the listener how the call ended, once
+    private void endCall(IOException e) {
+        if(callEnded) {
+            return;
+        }
+        callEnded = true;
+        if(e == null) {
+            eventListener.callEnd(this);
+        } else {
+            eventListener.callFailed(this, e);
+        }
+    }
+
+    /**
+     * Reports a failure to the handler without sending the request, for
+     * requests which are turned away before they run.
+     */
+    void fail(IOException e) {
+        if(responseHandler != null) {
+            bindDelivery(this);
+            try {
+                responseHandler.sendStartMessage();
                 responseHandler.sendFinishMessage();
                 if(this.isBinaryRequest) {
                     responseHandler.sendFailureMessage(e, (byte[]) null);
                 } else {
                     responseHandler.sendFailureMessage(e, (String) null);
                 }
+            } finally {
+                bindDelivery(null);
             }
         }
     }
 
     private void makeRequest() throws IOException {
-        if(!Thread.currentThread().isInterrupted()) {
-            HttpResponse response = client.execute(request, context);
-            if(!Thread.currentThread().isInterrupted()) {
+        if(!isStopped()) {
+            HttpResponse response;
+            if(hedgePolicy != null) {
+                Hedge h = new Hedge();
+                hedge = h;
+                try {
+                    response = h.execute();
+                } finally {
+                    hedge = null;
+                }
+            } else {
+                response = execute(request, context, permit.get());
+            }
+
+            if(!isStopped()) {
+                if(responseCache != null) {
+                    response = updateCache(response);
+                }
                 if(responseHandler != null) {
+                    if(responseCache != null) {
+                        sendCacheStatus(cacheStatus);
+                    }
+                    eventListener.handlerStart(this);
                     responseHandler.sendResponseMessage(response);
+                    eventListener.handlerEnd(this);
+                }
+                if(binaryResponseCache != null) {
+                    cacheBinaryResponse(response);
+                }
+            }
+        }
+    }
+
+    private HttpResponse execute(HttpUriRequest request, HttpContext context, ConcurrencyLimiter.Permit permit) throws IOException {
+        if(permit == null && circuitBreaker == null) {
+            return readBody(send(request, context));
+        }
+
+        String route = getRoute(request.getURI());
+        long startTime = System.currentTimeMillis();
+        HttpResponse response;
+        try {
+            response = send(request, context);
+            if(permit != null) {
+                int statusCode = response.getStatusLine().getStatusCode();
+                Long sent = (Long) context.getAttribute(ConcurrencyLimiter.REQUEST_SENT);
+                if(statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == 429) {
+                    concurrencyLimiter.backOff(permit);
+                } else if(sent != null) {
+                    boolean multiplexed = Boolean.TRUE.equals(context.getAttribute(ConcurrencyLimiter.MULTIPLEXED));
+                    concurrencyLimiter.sample(permit, System.nanoTime() - sent, multiplexed);
+                }
+            }
+            readBody(response);
+        } catch(IOException e) {
+            // Failures say something about the host, unless the request was
+            // aborted, ran out of its own deadline or never got a connection
+            boolean aborted = request.isAborted() || deadlineExceeded;
+            if(permit != null && !aborted && e instanceof InterruptedIOException
+                    && !(e instanceof ConnectionPoolTimeoutException)) {
+                concurrencyLimiter.backOff(permit);
+            }
+            if(circuitBreaker != null && !aborted) {
+                circuitBreaker.record(route, true, System.currentTimeMillis() - startTime);
+            }
+            throw e;
+        }
+
+        if(circuitBreaker != null) {
+            circuitBreaker.record(route, response.getStatusLine().getStatusCode() >= 500, System.currentTimeMillis() - startTime);
+        }
+        return response;
+    }
+
+    // Sends the request and returns once the response headers are in
+    private HttpResponse send(HttpUriRequest request, HttpContext context) throws IOException {
+        HttpResponse response = null;
+        if(http2Transport != null) {
+            response = http2Transport.execute(client, request, context);
+            context.setAttribute(ConcurrencyLimiter.MULTIPLEXED, response != null);
+        }
+        if(response == null) {
+            response = client.execute(request, context);
+        }
+        eventListener.responseHeadersEnd(this, response.getStatusLine().getStatusCode());
+        return response;
+    }
+
+    // Read the body here rather than in the handler, so the connection
+    // goes back to the pool right away and a cancelled download stops
+    // without reporting a failure
+    private HttpResponse readBody(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if(entity != null) {
+            BufferedHttpEntity buffered = new BufferedHttpEntity(entity);
+            response.setEntity(buffered);
+            eventListener.responseBodyEnd(this, buffered.getContentLength());
+            if(eventListener != EventListener.NONE && isGzipped(entity)) {
+                eventListener.responseBodyDecoded(this, buffered.getContentLength());
+            }
+        } else {
+            eventListener.responseBodyEnd(this, 0);
+        }
+        return response;
+    }
+
+    private static boolean isGzipped(HttpEntity entity) {
+        Header encoding = entity.getContentEncoding();
+        return encoding != null && encoding.getValue().toLowerCase(Locale.ENGLISH).contains("gzip");
+    }
+
+    // Requests are limited and measured per scheme, host and port
+    static String getRoute(URI uri) {
+        return getRoute(uri.getScheme(), uri.getHost(), uri.getPort());
+    }
+
+    private static String getRoute(String scheme, String host, int port) {
+        if(port < 0) {
+            port = "https".equalsIgnoreCase(scheme) ? 443 : 80;
+        }
+        return scheme.toLowerCase(Locale.ENGLISH) + "://" + host.toLowerCase(Locale.ENGLISH) + ":" + port;
+    }
+
+    private boolean isStopped() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    // Looks up the stored response and either delivers it straight away, if
+    // the cache policy allows, or adds its validators to the request.
+    // Returns true if the network request should be skipped.
+    private boolean deliverCachedResponse() {
+        if(responseCache == null) {
+            return false;
+        }
+        if(!"GET".equals(request.getMethod())
+                || request.containsHeader(CacheEntry.HEADER_IF_NONE_MATCH)
+                || request.containsHeader(CacheEntry.HEADER_IF_MODIFIED_SINCE)) {
+            // Only plain GETs are cached, callers sending their own validators
+            // expect to see the 304 themselves
+            responseCache = null;
+            return false;
+        }
+
+        cachedEntry = responseCache.get(getCacheKey());
+        if(cachedEntry == null) {
+            return false;
+        }
+
+        if(cachePolicy == CachePolicy.STALE_WHILE_REVALIDATE) {
+            if(cachedEntry.isFresh(System.currentTimeMillis())) {
+                deliverCacheEntry(CacheStatus.FRESH);
+            } else {
+                deliverCacheEntry(CacheStatus.STALE);
+                if(revalidator != null) {
+                    // The request was never sent, so it can be reused as is
+                    revalidator.revalidate(getCacheKey(), new AsyncHttpRequest(client, context, request, null)
+                            .setResponseCache(responseCache)
+                            .setHttp2Transport(http2Transport));
                 }
-            } else{
-                //TODO: should raise InterruptedException? this block is reached whenever the request is cancelled before its response is received
             }
+            return true;
+        }
+
+        cachedEntry.addValidators(request);
+        return false;
+    }
+
+    private boolean deliverStaleOnError() {
+        if(cachePolicy != CachePolicy.STALE_IF_ERROR || responseCache == null || cachedEntry == null) {
+            return false;
+        }
+        deliverCacheEntry(CacheStatus.STALE);
+        return true;
+    }
+
+    private void deliverCacheEntry(CacheStatus status) {
+        if(responseHandler != null) {
+            sendCacheStatus(status);
+            responseHandler.sendResponseMessage(cachedEntry.toHttpResponse());
         }
     }
 
-    private void makeRequestWithRetries() throws ConnectException {
+    private void sendCacheStatus(CacheStatus status) {
+        if(responseHandler instanceof AsyncHttpResponseHandler.CacheStatusAware) {
+            ((AsyncHttpResponseHandler.CacheStatusAware) responseHandler).sendCacheStatusMessage(status);
+        }
+    }
+
+    private HttpResponse updateCache(HttpResponse response) throws IOException {
+        String key = getCacheKey();
+        int statusCode = response.getStatusLine().getStatusCode();
+
+        if(statusCode == HttpStatus.SC_NOT_MODIFIED && cachedEntry != null) {
+            HttpEntity entity = response.getEntity();
+            if(entity != null) {
+                entity.consumeContent();
+            }
+            cachedEntry = cachedEntry.withUpdatedHeaders(response.getAllHeaders());
+            responseCache.put(key, cachedEntry);
+            cacheStatus = CacheStatus.REVALIDATED;
+            return cachedEntry.toHttpResponse();
+        }
+
+        if(CacheEntry.isCacheable(response)) {
+            CacheEntry entry = CacheEntry.fromResponse(response);
+            response.setEntity(entry.createEntity());
+            responseCache.put(key, entry);
+        } else if(statusCode == HttpStatus.SC_OK && cachedEntry != null) {
+            // The resource no longer carries validators, drop the stale copy
+            responseCache.remove(key);
+        }
+        return response;
+    }
+
+    // Caches the body once the handler has taken the response as a success,
+    // so a body it would reject is never served from the cache later
+    private void cacheBinaryResponse(HttpResponse response) throws IOException {
+        if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK
+                || !(responseHandler instanceof AsyncBinaryResponseHandler)
+                || !((AsyncBinaryResponseHandler) responseHandler).acceptsResponse(response)
+                || CacheEntry.isNoStore(response)) {
+            return;
+        }
+        HttpEntity entity = response.getEntity();
+        if(entity == null) {
+            return;
+        }
+        // The body was buffered by readBody(), so it can be read again
+        byte[] body = EntityUtils.toByteArray(entity);
+        if(body == null) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(HttpStatus.SC_OK, response.getStatusLine().getReasonPhrase(),
+                response.getAllHeaders(), body, System.currentTimeMillis());
+        long expiresAt = entry.getExpiresAt();
+        if(expiresAt > 0) {
+            binaryResponseCache.put(getCacheKey(), body, expiresAt);
+        } else {
+            binaryResponseCache.remove(getCacheKey());
+        }
+    }
+
+    private String getCacheKey() {
+        return request.getURI().toString();
+    }
+
+    // Caps the timeouts of the next attempt at what is left of the deadline
+    private void applyDeadline() throws DeadlineExceededException {
+        long remaining = deadline - System.currentTimeMillis();
+        if(remaining <= 0 || deadlineExceeded) {
+            throw new DeadlineExceededException("Deadline exceeded for " + request.getURI());
+        }
+        HttpParams defaults = client.getParams();
+        HttpParams params = request.getParams();
+        int budget = (int) Math.min(remaining, Integer.MAX_VALUE);
+        HttpConnectionParams.setConnectionTimeout(params, capTimeout(HttpConnectionParams.getConnectionTimeout(defaults), budget));
+        HttpConnectionParams.setSoTimeout(params, capTimeout(HttpConnectionParams.getSoTimeout(defaults), budget));
+        ConnManagerParams.setTimeout(params, capTimeout(ConnManagerParams.getTimeout(defaults), remaining));
+    }
+
+    // A timeout of 0 means none at all
+    private static int capTimeout(int timeout, int budget) {
+        return timeout > 0 ? Math.min(timeout, budget) : budget;
+    }
+
+    private static long capTimeout(long timeout, long budget) {
+        return timeout > 0 ? Math.min(timeout, budget) : budget;
+    }
+
+    private void makeRequestWithRetries() throws IOException {
         // This is an additional layer of retry logic lifted from droid-fu
         // See: https://github.com/kaeppler/droid-fu/blob/master/src/main/java/com/github/droidfu/http/BetterHttpRequestBase.java
         boolean retry = true;
         IOException cause = null;
         HttpRequestRetryHandler retryHandler = client.getHttpRequestRetryHandler();
         while (retry) {
+            if(circuitBreaker != null && !circuitBreaker.allowRequest(getRoute(request.getURI()))) {
+                CircuitOpenException ex = new CircuitOpenException("Circuit open for " + getRoute(request.getURI()));
+                ex.initCause(cause);
+                throw ex;
+            }
             try {
+                if(deadline > 0) {
+                    applyDeadline();
+                }
+                eventListener.attemptStart(this, executionCount + 1);
                 makeRequest();
                 return;
 	    } catch (UnknownHostException e) {
-	        if(responseHandler != null) {
-	            responseHandler.sendFailureMessage(e, "can't resolve host");
+	        eventListener.attemptFailed(this, executionCount + 1, e);
+	        if(isStopped()) {
+	            return;
+	        }
+	        if(!deliverStaleOnError()) {
+	            endCall(e);
+	            if(responseHandler != null) {
+	                responseHandler.sendFailureMessage(e, "can't resolve host");
+	            }
 		}
 		return;
+            } catch (DeadlineExceededException e) {
+                throw e;
             } catch (IOException e) {
+                eventListener.attemptFailed(this, executionCount + 1, e);
+                if(isStopped()) {
+                    // Aborted by cancel(), don't queue up a retry
+                    return;
+                }
+                if(deadlineExceeded) {
+                    DeadlineExceededException ex = new DeadlineExceededException("Deadline exceeded for " + request.getURI());
+                    ex.initCause(e);
+                    throw ex;
+                }
                 cause = e;
                 retry = retryHandler.retryRequest(cause, ++executionCount, context);
             } catch (NullPointerException e) {
@@ -121,4 +697,164 @@ public class AsyncHttpRequest implements Runnable {
         ex.initCause(cause);
         throw ex;
     }
+
+    // Races the request against a copy sent after the hedge delay. The
+    // request itself runs on the calling thread, the copy on the hedge
+    // executor, and whichever response comes first aborts the other.
+    // Both record their latency from the start of the request, the loser
+    // the time it was aborted at, a lower bound of its real latency.
+    private class Hedge implements Runnable {
+        private final String route = getRoute(request.getURI());
+        private long startTime;
+        private HttpUriRequest copy;
+        private ConcurrencyLimiter.Permit copyPermit;
+        private FutureTask<Void> future;
+        private HttpResponse winner;
+        private boolean closed;
+        private boolean running;
+        private boolean copyWon;
+
+        HttpResponse execute() throws IOException {
+            hedgePolicy.deposit();
+            startTime = System.currentTimeMillis();
+            TimerWheel.Timeout timeout = timerWheel.schedule(new Runnable() {
+                public void run() {
+                    start();
+                }
+            }, hedgePolicy.getDelay(route));
+
+            try {
+                HttpResponse response = AsyncHttpRequest.this.execute(request, context, permit.get());
+                recordLatency();
+                synchronized(this) {
+                    if(winner == null) {
+                        winner = response;
+                    }
+                    close();
+                    return winner;
+                }
+            } catch(IOException e) {
+                synchronized(this) {
+                    if(copyWon) {
+                        recordLatency();
+                    }
+                    // A hedge that is already running may still answer, one
+                    // that is still queued is dropped
+                    while(winner == null && running) {
+                        try {
+                            wait();
+                        } catch(InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    close();
+                    if(winner != null) {
+                        return winner;
+                    }
+                }
+                throw e;
+            } finally {
+                timeout.cancel();
+            }
+        }
+
+        // Called on the timer thread when the delay is up
+        private void start() {
+            FutureTask<Void> task;
+            synchronized(this) {
+                if(closed) {
+                    return;
+                }
+                if(concurrencyLimiter != null) {
+                    // No hedges for a host that is already at its limit
+                    copyPermit = concurrencyLimiter.tryAcquire(route);
+                    if(copyPermit == null) {
+                        return;
+                    }
+                }
+                if(!hedgePolicy.tryAcquire()) {
+                    releaseCopyPermit();
+                    return;
+                }
+                copy = new HttpGet(request.getURI());
+                copy.setHeaders(request.getAllHeaders());
+                copy.setParams(request.getParams());
+                task = new FutureTask<Void>(this, null);
+                future = task;
+            }
+            try {
+                hedgeExecutor.execute(task);
+            } catch(RejectedExecutionException e) {
+                // no thread to spare, the request carries on alone
+                synchronized(this) {
+                    releaseCopyPermit();
+                }
+            }
+        }
+
+        // Sends the copy on the hedge executor
+        public void run() {
+            synchronized(this) {
+                if(closed) {
+                    return;
+                }
+                running = true;
+            }
+            HttpResponse response = null;
+            try {
+                response = AsyncHttpRequest.this.execute(copy, new BasicHttpContext(context), copyPermit);
+                recordLatency();
+            } catch(IOException e) {
+                // lost the race, or failed, the request carries on alone
+            }
+            synchronized(this) {
+                releaseCopyPermit();
+                if(response == null && winner != null) {
+                    recordLatency();
+                }
+                running = false;
+                if(response != null && winner == null) {
+                    winner = response;
+                    copyWon = true;
+                }
+                notifyAll();
+            }
+            if(copyWon) {
+                AsyncHttpRequest.abort(request);
+            }
+        }
+
+        private void recordLatency() {
+            hedgePolicy.recordLatency(route, System.currentTimeMillis() - startTime);
+        }
+
+        // Called with the hedge's lock held
+        private void releaseCopyPermit() {
+            if(copyPermit != null) {
+                concurrencyLimiter.release(copyPermit);
+                copyPermit = null;
+            }
+        }
+
+        // Stops the hedge, aborting the copy if it is still on its way
+        private void close() {
+            closed = true;
+            if(future != null && future.cancel(false)) {
+                if(hedgeExecutor instanceof ThreadPoolExecutor) {
+                    ((ThreadPoolExecutor) hedgeExecutor).remove(future);
+                }
+                if(!running) {
+                    releaseCopyPermit();
+                }
+            }
+            if(copy != null && !copyWon) {
+                AsyncHttpRequest.abort(copy);
+            }
+        }
+
+        synchronized void abort() {
+            close();
+        }
+    }
 }
@@ -14,4 +14,12 @@ public interface AsyncHttpResponseHandler {
 	public void sendFailureMessage(Throwable e, String responseBody);
 	public void sendFailureMessage(Throwable e, byte[] responseBody);
 	public void sendResponseMessage(HttpResponse response);
+
+	/**
+	 * Implemented by handlers which want to know whether a response came
+	 * from the network or the cache.
+	 */
+	public interface CacheStatusAware {
+		public void sendCacheStatusMessage(CacheStatus status);
+	}
 }
@@ -0,0 +1,254 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory cache of binary response bodies, such as images, keyed by
+ * url and bounded by the total number of bytes stored rather than the
+ * number of entries.
+ * <p>
+ * Bodies are kept until their <code>Cache-Control: max-age</code> or
+ * <code>Expires</code> lifetime runs out, and the least recently used
+ * bodies are evicted once the cache grows past its budget. Responses
+ * without a lifetime, or marked <code>no-store</code>, aren't cached.
+ * <p>
+ * The cache is split into independently locked stripes, so concurrent
+ * lookups for different urls rarely contend. The byte budget is shared by
+ * all stripes: each stripe keeps its bodies in least recently used order,
+ * and eviction drops the oldest of the stripes' least recently used
+ * bodies.
+ * <p>
+ * When set on an {@link AsyncHttpClient}, GET requests made with an
+ * {@link AsyncBinaryResponseHandler} are answered straight from the cache
+ * without scheduling a request. Only responses the handler accepted are
+ * cached:
+ * <p>
+ * <pre>
+ * AsyncHttpClient client = new AsyncHttpClient();
+ * client.setBinaryResponseCache(new BinaryResponseCache(4 * 1024 * 1024));
+ * </pre>
+ * Cached arrays are shared between all callers and must not be modified.
+ */
+public class BinaryResponseCache {
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final long maxBytes;
+    private final Stripe[] stripes;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Creates a new cache holding up to the given number of bytes.
+     * @param maxBytes the total size of the bodies to keep.
+     */
+    public BinaryResponseCache(long maxBytes) {
+        this(maxBytes, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new cache holding up to the given number of bytes.
+     * @param maxBytes the total size of the bodies to keep.
+     * @param concurrencyLevel the number of independently locked stripes, rounded up to a power of two.
+     */
+    public BinaryResponseCache(long maxBytes, int concurrencyLevel) {
+        this.maxBytes = maxBytes;
+        int count = 1;
+        while(count < concurrencyLevel) {
+            count <<= 1;
+        }
+        stripes = new Stripe[count];
+        for(int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the body cached for the url, or null if there is none or it
+     * has expired.
+     */
+    public byte[] get(String url) {
+        Stripe stripe = stripeFor(url);
+        synchronized(stripe) {
+            Entry entry = stripe.entries.get(url);
+            if(entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                stripe.entries.remove(url);
+                size.addAndGet(-entry.body.length);
+                entry = null;
+            }
+            if(entry != null) {
+                entry.lastUsed = System.nanoTime();
+                stripe.hits++;
+                return entry.body;
+            }
+            stripe.misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Caches the body for the url until the given time, evicting least
+     * recently used bodies as needed. Bodies larger than the whole budget
+     * are not cached.
+     * @param expiresAt the time the body stops being fresh, in milliseconds since the epoch.
+     */
+    public void put(String url, byte[] body, long expiresAt) {
+        Stripe stripe = stripeFor(url);
+        synchronized(stripe) {
+            Entry previous = stripe.entries.remove(url);
+            if(previous != null) {
+                size.addAndGet(-previous.body.length);
+            }
+            if(body.length > maxBytes || expiresAt <= System.currentTimeMillis()) {
+                return;
+            }
+            stripe.entries.put(url, new Entry(body, expiresAt, System.nanoTime()));
+            size.addAndGet(body.length);
+        }
+
+        // Evict with no stripe locked, a stripe is only locked to peek at
+        // or remove its least recently used body
+        while(size.get() > maxBytes) {
+            if(!evictOldest()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Removes the body cached for the url, if any.
+     */
+    public void remove(String url) {
+        Stripe stripe = stripeFor(url);
+        synchronized(stripe) {
+            Entry previous = stripe.entries.remove(url);
+            if(previous != null) {
+                size.addAndGet(-previous.body.length);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached bodies.
+     */
+    public void clear() {
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                for(Entry entry : stripe.entries.values()) {
+                    size.addAndGet(-entry.body.length);
+                }
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the total number of bytes currently cached.
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of lookups which found a cached body.
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which found nothing.
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    // Removes the least recently used of the stripes' least recently used
+    // bodies, returns false if the cache is empty
+    private boolean evictOldest() {
+        Stripe oldestStripe = null;
+        Entry oldest = null;
+        long oldestUsed = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                Iterator<Entry> it = stripe.entries.values().iterator();
+                if(it.hasNext()) {
+                    Entry eldest = it.next();
+                    if(oldest == null || eldest.lastUsed - oldestUsed < 0) {
+                        oldest = eldest;
+                        oldestUsed = eldest.lastUsed;
+                        oldestStripe = stripe;
+                    }
+                }
+            }
+        }
+        if(oldest == null) {
+            return false;
+        }
+        synchronized(oldestStripe) {
+            // Used or replaced meanwhile, the next round picks again
+            Iterator<Entry> it = oldestStripe.entries.values().iterator();
+            if(it.hasNext() && it.next() == oldest) {
+                it.remove();
+                size.addAndGet(-oldest.body.length);
+            }
+        }
+        return true;
+    }
+
+    private Stripe stripeFor(String url) {
+        int hash = url.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private static class Stripe {
+        final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        long hits;
+        long misses;
+    }
+
+    private static class Entry {
+        final byte[] body;
+        final long expiresAt;
+        // Guarded by the stripe's lock
+        long lastUsed;
+
+        Entry(byte[] body, long expiresAt, long lastUsed) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A response stored in a {@link ResponseCache}: the status line, the
+ * end-to-end response headers and the fully decoded response body.
+ * <p>
+ * Entries are immutable. Revalidating an entry with a <code>304 Not
+ * Modified</code> response produces a new entry with the updated headers.
+ */
+public class CacheEntry {
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String HEADER_EXPIRES = "Expires";
+    private static final String HEADER_DATE = "Date";
+    private static final String HEADER_AGE = "Age";
+
+    // Headers which describe the connection or the encoded transfer rather
+    // than the stored (already decoded) body, so must never be replayed
+    private static final String[] UNSTORED_HEADERS = new String[] {
+        "Connection",
+        "Keep-Alive",
+        "Transfer-Encoding",
+        "Content-Encoding",
+        "Content-Length",
+        "Set-Cookie",
+        "Set-Cookie2"
+    };
+
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Header[] headers;
+    private final byte[] body;
+    private final long storedAt;
+
+    /**
+     * Creates a new cache entry.
+     * @param statusCode the status code of the stored response.
+     * @param reasonPhrase the reason phrase of the stored response.
+     * @param headers the end-to-end headers of the stored response.
+     * @param body the decoded response body, never null.
+     * @param storedAt the time the response was received or last revalidated, in milliseconds since the epoch.
+     */
+    public CacheEntry(int statusCode, String reasonPhrase, Header[] headers, byte[] body, long storedAt) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers;
+        this.body = body;
+        this.storedAt = storedAt;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    /**
+     * Returns the value of the first stored header with the given name, or null.
+     */
+    public String getHeaderValue(String name) {
+        for(Header header : headers) {
+            if(header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if this entry may still be used without revalidation,
+     * based on its <code>Cache-Control: max-age</code> or <code>Expires</code>
+     * header. Entries without explicit freshness information are never fresh.
+     * @param now the current time, in milliseconds since the epoch.
+     */
+    public boolean isFresh(long now) {
+        long lifetime = getFreshnessLifetime();
+        if(lifetime <= 0) {
+            return false;
+        }
+        long age = now - storedAt + getInitialAge();
+        return age < lifetime;
+    }
+
+    /**
+     * Returns the time this entry stops being fresh, in milliseconds since
+     * the epoch, or 0 if it has no explicit freshness information.
+     */
+    long getExpiresAt() {
+        long lifetime = getFreshnessLifetime();
+        return lifetime > 0 ? storedAt + lifetime - getInitialAge() : 0;
+    }
+
+    // Returns the freshness lifetime in milliseconds, or 0 if there is none
+    private long getFreshnessLifetime() {
+        for(Header header : headers) {
+            if(!header.getName().equalsIgnoreCase(HEADER_CACHE_CONTROL)) {
+                continue;
+            }
+            for(HeaderElement element : header.getElements()) {
+                String name = element.getName();
+                if(name.equalsIgnoreCase("no-cache") || name.equalsIgnoreCase("must-revalidate")) {
+                    return 0;
+                }
+                if(name.equalsIgnoreCase("max-age") && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch(NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+
+        String expires = getHeaderValue(HEADER_EXPIRES);
+        if(expires != null) {
+            try {
+                Date expiresDate = DateUtils.parseDate(expires);
+                String date = getHeaderValue(HEADER_DATE);
+                Date responseDate = date != null ? DateUtils.parseDate(date) : new Date(storedAt);
+                return Math.max(0, expiresDate.getTime() - responseDate.getTime());
+            } catch(DateParseException e) {
+                // Invalid dates mean the response is already expired
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    // Returns the age the response already had when it was received, from the Age header
+    private long getInitialAge() {
+        String age = getHeaderValue(HEADER_AGE);
+        if(age != null) {
+            try {
+                return Math.max(0, Long.parseLong(age.trim()) * 1000);
+            } catch(NumberFormatException e) {
+                // ignore malformed Age headers
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds <code>If-None-Match</code> and <code>If-Modified-Since</code>
+     * headers to the request using this entry's validators.
+     */
+    public void addValidators(HttpUriRequest request) {
+        String etag = getHeaderValue(HEADER_ETAG);
+        if(etag != null) {
+            request.setHeader(HEADER_IF_NONE_MATCH, etag);
+        }
+        String lastModified = getHeaderValue(HEADER_LAST_MODIFIED);
+        if(lastModified != null) {
+            request.setHeader(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Returns a copy of this entry updated with the headers of a <code>304
+     * Not Modified</code> response, as required by RFC 7234 section 4.3.4.
+     */
+    public CacheEntry withUpdatedHeaders(Header[] updates) {
+        List<Header> merged = new ArrayList<Header>(headers.length + updates.length);
+        for(Header header : headers) {
+            if(!containsHeader(updates, header.getName())) {
+                merged.add(header);
+            }
+        }
+        for(Header header : updates) {
+            if(isStoredHeader(header.getName())) {
+                merged.add(header);
+            }
+        }
+        return new CacheEntry(statusCode, reasonPhrase, merged.toArray(new Header[merged.size()]), body, System.currentTimeMillis());
+    }
+
+    /**
+     * Builds a response carrying this entry's status, headers and body, which
+     * can be handed to an {@link AsyncHttpResponseHandler} like a network response.
+     */
+    public HttpResponse toHttpResponse() {
+        BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, reasonPhrase));
+        response.setHeaders(headers);
+        response.setEntity(createEntity());
+        return response;
+    }
+
+    /**
+     * Creates a repeatable entity for this entry's body.
+     */
+    public HttpEntity createEntity() {
+        ByteArrayEntity entity = new ByteArrayEntity(body);
+        String contentType = getHeaderValue(HEADER_CONTENT_TYPE);
+        if(contentType != null) {
+            entity.setContentType(contentType);
+        }
+        return entity;
+    }
+
+    /**
+     * Returns true if the response can be stored and later revalidated: it
+     * must be a <code>200 OK</code> carrying an <code>ETag</code> or
+     * <code>Last-Modified</code> validator and must not forbid storage.
+     */
+    public static boolean isCacheable(HttpResponse response) {
+        if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+            return false;
+        }
+        if(!response.containsHeader(HEADER_ETAG) && !response.containsHeader(HEADER_LAST_MODIFIED)) {
+            return false;
+        }
+        return !isNoStore(response);
+    }
+
+    // True if the response forbids caches from storing it
+    static boolean isNoStore(HttpResponse response) {
+        for(Header header : response.getHeaders(HEADER_CACHE_CONTROL)) {
+            for(HeaderElement element : header.getElements()) {
+                if(element.getName().equalsIgnoreCase("no-store")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the response body fully and creates an entry from the response.
+     * The response entity is consumed, so callers should replace it with
+     * {@link #createEntity()} before passing the response on.
+     */
+    public static CacheEntry fromResponse(HttpResponse response) throws IOException {
+        byte[] body = new byte[0];
+        HttpEntity entity = response.getEntity();
+        if(entity != null) {
+            byte[] content = EntityUtils.toByteArray(entity);
+            if(content != null) {
+                body = content;
+            }
+        }
+
+        List<Header> stored = new ArrayList<Header>();
+        for(Header header : response.getAllHeaders()) {
+            if(isStoredHeader(header.getName())) {
+                stored.add(header);
+            }
+        }
+        if(entity != null && entity.getContentType() != null && !response.containsHeader(HEADER_CONTENT_TYPE)) {
+            stored.add(entity.getContentType());
+        }
+
+        return new CacheEntry(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(),
+                stored.toArray(new Header[stored.size()]), body, System.currentTimeMillis());
+    }
+
+    private static boolean isStoredHeader(String name) {
+        for(String unstored : UNSTORED_HEADERS) {
+            if(unstored.equalsIgnoreCase(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsHeader(Header[] headers, String name) {
+        for(Header header : headers) {
+            if(header.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
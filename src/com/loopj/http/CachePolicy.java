@@ -0,0 +1,48 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+/**
+ * Controls how a request made with a {@link ResponseCache} uses a stored
+ * response.
+ *
+ * @see AsyncHttpClient#setCachePolicy(CachePolicy)
+ * @see AsyncHttpClient.Transaction#setCachePolicy(CachePolicy)
+ */
+public enum CachePolicy {
+    /**
+     * Always go to the network, revalidating a stored response with
+     * If-None-Match/If-Modified-Since when one exists. This is the default.
+     */
+    REVALIDATE,
+
+    /**
+     * Deliver a stored response immediately, without waiting for the network.
+     * Fresh responses are delivered as they are, stale ones are refreshed in
+     * the background at low priority so the next request sees the update.
+     * Requests without a stored response go to the network.
+     */
+    STALE_WHILE_REVALIDATE,
+
+    /**
+     * Revalidate like {@link #REVALIDATE}, but deliver the stored response if
+     * the network request ultimately fails to connect.
+     */
+    STALE_IF_ERROR
+}
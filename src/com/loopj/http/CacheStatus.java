@@ -0,0 +1,49 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+/**
+ * Tells an {@link AsyncHttpResponseHandler} where the response it is about
+ * to receive came from, for requests made with a {@link ResponseCache}.
+ */
+public enum CacheStatus {
+    /**
+     * The response was downloaded from the network.
+     */
+    NETWORK,
+
+    /**
+     * The response was delivered from the cache without contacting the
+     * network, because it was still fresh.
+     */
+    FRESH,
+
+    /**
+     * The response was delivered from the cache although it may be out of
+     * date, either while it is being refreshed in the background or because
+     * the network request failed.
+     */
+    STALE,
+
+    /**
+     * The server confirmed with a 304 Not Modified that the cached response
+     * is still current, and the cached body was delivered.
+     */
+    REVALIDATED
+}
@@ -0,0 +1,276 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link HostResolver} which caches the answers of another resolver.
+ * <p>
+ * Successful lookups are kept for a fixed time to live, and refreshed in
+ * the background once most of it has passed, so hot hosts never wait for
+ * DNS. Expired answers are still handed out for a while when a refresh is
+ * under way, so a stalled resolver during a network handover doesn't block
+ * request threads. Failed lookups are remembered for a short time, so
+ * requests to an unknown host fail fast instead of each waiting for the
+ * resolver to time out. Concurrent lookups of the same host share one
+ * query. At most a fixed number of hosts are kept, expired ones being
+ * dropped first.
+ * <p>
+ * For example:
+ * <p>
+ * <pre>
+ * CachingHostResolver resolver = new CachingHostResolver();
+ * resolver.prefetch("api.example.com", "images.example.com");
+ * engine.setHostResolver(resolver);
+ * </pre>
+ */
+public class CachingHostResolver implements HostResolver {
+    private static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+    private static final long DEFAULT_NEGATIVE_TTL_MILLIS = 5 * 1000;
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final int MAX_REFRESH_THREADS = 2;
+
+    private final HostResolver delegate;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<String, FutureTask<Entry>> lookups = new ConcurrentHashMap<String, FutureTask<Entry>>();
+    private final ConcurrentHashMap<String, Boolean> pendingRefreshes = new ConcurrentHashMap<String, Boolean>();
+    private final ThreadPoolExecutor refreshPool;
+
+    // Bumped by clear(), so lookups started before it don't repopulate the cache
+    private int generation;
+
+    /**
+     * Creates a resolver caching the platform resolver for a minute, and
+     * failed lookups for 5 seconds.
+     */
+    public CachingHostResolver() {
+        this(HostResolver.SYSTEM, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS);
+    }
+
+    /**
+     * Creates a resolver caching another resolver.
+     * @param delegate the resolver to cache.
+     * @param ttlMillis how long to keep successful lookups.
+     * @param negativeTtlMillis how long to keep failed lookups.
+     */
+    public CachingHostResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis) {
+        this(delegate, ttlMillis, negativeTtlMillis, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a resolver caching another resolver.
+     * @param delegate the resolver to cache.
+     * @param ttlMillis how long to keep successful lookups.
+     * @param negativeTtlMillis how long to keep failed lookups.
+     * @param maxEntries the most hosts to keep lookups for.
+     */
+    public CachingHostResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxEntries = maxEntries;
+
+        refreshPool = new ThreadPoolExecutor(MAX_REFRESH_THREADS, MAX_REFRESH_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CachingHostResolver refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refreshPool.allowCoreThreadTimeOut(true);
+    }
+
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(host);
+        if(entry != null) {
+            if(now < entry.refreshAt) {
+                return entry.get(host);
+            }
+            if(entry.addresses != null && now < entry.expiresAt + ttlMillis) {
+                // Close to or just past expiry, answer now and refresh behind the scenes
+                refresh(host);
+                return entry.get(host);
+            }
+        }
+        return lookup(host).get(host);
+    }
+
+    /**
+     * Resolves hosts in the background, so the first requests to them
+     * don't wait for DNS.
+     */
+    public void prefetch(String... hosts) {
+        for(String host : hosts) {
+            refresh(host);
+        }
+    }
+
+    /**
+     * Forgets all cached lookups, for example after switching networks.
+     * Lookups still in flight are detached, so later requests query the
+     * resolver again and the old answers aren't cached.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        lookups.clear();
+        refreshPool.getQueue().clear();
+        pendingRefreshes.clear();
+    }
+
+    private void refresh(final String host) {
+        if(pendingRefreshes.putIfAbsent(host, Boolean.TRUE) != null) {
+            return;
+        }
+        refreshPool.execute(new Runnable() {
+            public void run() {
+                try {
+                    lookup(host);
+                } catch(UnknownHostException e) {
+                    // already cached as a failed lookup
+                } finally {
+                    pendingRefreshes.remove(host);
+                }
+            }
+        });
+    }
+
+    // Queries the delegate, sharing the query with any concurrent lookups of the same host
+    private Entry lookup(final String host) throws UnknownHostException {
+        final int lookupGeneration;
+        synchronized(this) {
+            lookupGeneration = generation;
+        }
+        FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() {
+                Entry entry;
+                try {
+                    InetAddress[] addresses = delegate.resolve(host);
+                    long now = System.currentTimeMillis();
+                    entry = new Entry(addresses, null, now + ttlMillis * 3 / 4, now + ttlMillis);
+                } catch(UnknownHostException e) {
+                    long now = System.currentTimeMillis();
+                    Entry previous = entries.get(host);
+                    if(previous != null && previous.addresses != null && now < previous.expiresAt + ttlMillis) {
+                        // Keep the last good answer through a transient failure
+                        return previous;
+                    }
+                    entry = new Entry(null, e, now + negativeTtlMillis, now + negativeTtlMillis);
+                }
+                store(host, entry, lookupGeneration);
+                return entry;
+            }
+        });
+
+        FutureTask<Entry> existing = lookups.putIfAbsent(host, task);
+        if(existing != null) {
+            task = existing;
+        } else {
+            try {
+                task.run();
+            } finally {
+                lookups.remove(host, task);
+            }
+        }
+
+        try {
+            return task.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(host + ": interrupted");
+        } catch(ExecutionException e) {
+            throw new UnknownHostException(host + ": " + e.getCause());
+        }
+    }
+
+    private synchronized void store(String host, Entry entry, int lookupGeneration) {
+        if(lookupGeneration != generation) {
+            return;
+        }
+        entries.put(host, entry);
+        if(entries.size() <= maxEntries) {
+            return;
+        }
+
+        // Drop hosts that can no longer be answered from the cache first,
+        // then the ones going unusable soonest. Expired addresses still
+        // answer for a while longer as stale ones.
+        long now = System.currentTimeMillis();
+        String soonest = null;
+        long soonestExpiry = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            long usableUntil = usableUntil(e.getValue());
+            if(usableUntil <= now) {
+                it.remove();
+            } else if(usableUntil < soonestExpiry && !e.getKey().equals(host)) {
+                soonest = e.getKey();
+                soonestExpiry = usableUntil;
+            }
+        }
+        if(entries.size() > maxEntries && soonest != null) {
+            entries.remove(soonest);
+        }
+    }
+
+    // Addresses are served stale for another ttl past expiry, failures are not
+    private long usableUntil(Entry entry) {
+        return entry.addresses != null ? entry.expiresAt + ttlMillis : entry.expiresAt;
+    }
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final UnknownHostException error;
+        final long refreshAt;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, UnknownHostException error, long refreshAt, long expiresAt) {
+            this.addresses = addresses;
+            this.error = error;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+
+        InetAddress[] get(String host) throws UnknownHostException {
+            if(addresses == null) {
+                // A fresh exception, so the stack trace shows the caller
+                throw new UnknownHostException(error.getMessage() != null ? error.getMessage() : host);
+            }
+            return addresses.clone();
+        }
+    }
+}
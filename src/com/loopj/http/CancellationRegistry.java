@@ -0,0 +1,200 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks in-flight requests by cancel key, so they can be cancelled
+ * together.
+ * <p>
+ * Each cancel key has a scope, and scopes can be nested, for example an
+ * activity's scope holding the scopes of its fragments, so cancelling a
+ * scope cancels the requests of all scopes below it as well. Cancel keys
+ * are held weakly, as they usually are contexts, and a scope goes away
+ * with its key, its child scopes moving up to its parent.
+ * <p>
+ * Requests are added and removed without locking and leave their scope as
+ * soon as they complete, so cancelling a scope only touches live requests.
+ */
+final class CancellationRegistry {
+    private final ConcurrentMap<ScopeKey, Scope> scopes = new ConcurrentHashMap<ScopeKey, Scope>();
+    private final ReferenceQueue<Object> collectedKeys = new ReferenceQueue<Object>();
+
+    /**
+     * Adds a request to the scope of a cancel key. Must be called before
+     * the request is queued, so it can't complete before it's added.
+     */
+    void register(Object cancelKey, RequestFuture request) {
+        Scope scope = getOrCreateScope(cancelKey);
+        request.setScope(scope);
+        scope.requests.add(request);
+    }
+
+    /**
+     * Nests the scope of one cancel key inside another's.
+     * @throws IllegalArgumentException if the parent is nested inside the child.
+     */
+    void setParent(Object cancelKey, Object parentKey) {
+        Scope scope = getOrCreateScope(cancelKey);
+        Scope parent = parentKey != null ? getOrCreateScope(parentKey) : null;
+        synchronized(this) {
+            for(Scope ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+                if(ancestor == scope) {
+                    throw new IllegalArgumentException("Cancel scopes can't be nested inside themselves");
+                }
+            }
+            if(scope.parent != null) {
+                scope.parent.children.remove(scope);
+            }
+            scope.parent = parent;
+            if(parent != null) {
+                parent.children.add(scope);
+            }
+        }
+    }
+
+    /**
+     * Cancels the requests in the scope of a cancel key and all scopes
+     * nested inside it.
+     * @return the number of requests cancelled.
+     */
+    int cancel(Object cancelKey, boolean mayInterruptIfRunning) {
+        expungeCollectedKeys();
+        Scope scope = scopes.get(new ScopeKey(cancelKey, null));
+        if(scope == null) {
+            return 0;
+        }
+        int cancelled = 0;
+        for(Scope s : subtree(scope)) {
+            for(RequestFuture request : s.requests) {
+                if(request.cancel(mayInterruptIfRunning)) {
+                    cancelled++;
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Returns the number of requests in flight in the scope of a cancel
+     * key and all scopes nested inside it.
+     */
+    int getRequestCount(Object cancelKey) {
+        Scope scope = scopes.get(new ScopeKey(cancelKey, null));
+        if(scope == null) {
+            return 0;
+        }
+        int count = 0;
+        for(Scope s : subtree(scope)) {
+            count += s.requests.size();
+        }
+        return count;
+    }
+
+    private List<Scope> subtree(Scope root) {
+        List<Scope> subtree = new ArrayList<Scope>();
+        subtree.add(root);
+        for(int i = 0; i < subtree.size(); i++) {
+            subtree.addAll(subtree.get(i).children);
+        }
+        return subtree;
+    }
+
+    private Scope getOrCreateScope(Object cancelKey) {
+        expungeCollectedKeys();
+        Scope scope = scopes.get(new ScopeKey(cancelKey, null));
+        if(scope == null) {
+            Scope created = new Scope();
+            scope = scopes.putIfAbsent(new ScopeKey(cancelKey, collectedKeys), created);
+            if(scope == null) {
+                scope = created;
+            }
+        }
+        return scope;
+    }
+
+    // Drops the scopes of collected keys, moving their children up a level
+    private void expungeCollectedKeys() {
+        ScopeKey key;
+        while((key = (ScopeKey) collectedKeys.poll()) != null) {
+            Scope scope = scopes.remove(key);
+            if(scope == null) {
+                continue;
+            }
+            synchronized(this) {
+                Scope parent = scope.parent;
+                if(parent != null) {
+                    parent.children.remove(scope);
+                }
+                for(Scope child : scope.children) {
+                    child.parent = parent;
+                    if(parent != null) {
+                        parent.children.add(child);
+                    }
+                }
+                scope.children.clear();
+            }
+        }
+    }
+
+    static final class Scope {
+        final Set<RequestFuture> requests = Collections.newSetFromMap(new ConcurrentHashMap<RequestFuture, Boolean>());
+        final Set<Scope> children = Collections.newSetFromMap(new ConcurrentHashMap<Scope, Boolean>());
+        volatile Scope parent; // changed while holding the registry's lock
+
+        void remove(RequestFuture request) {
+            requests.remove(request);
+        }
+    }
+
+    // Compares keys by equality like a WeakHashMap, while holding them weakly
+    private static final class ScopeKey extends WeakReference<Object> {
+        private final int hash;
+
+        ScopeKey(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = key.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(o == this) {
+                return true;
+            }
+            if(!(o instanceof ScopeKey)) {
+                return false;
+            }
+            Object key = get();
+            return key != null && key.equals(((ScopeKey) o).get());
+        }
+    }
+}
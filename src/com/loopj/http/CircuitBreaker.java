@@ -0,0 +1,281 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stops sending requests to a host which is failing, so that they fail
+ * straight away instead of each tying up a thread through its retries.
+ * <p>
+ * The outcomes of the most recent requests to each host are kept. Once
+ * enough of them are in, the circuit opens if too many failed, with an
+ * IOException or a 5xx response, or took longer than the slow call
+ * threshold. While it is open, requests fail with a
+ * {@link CircuitOpenException}, and retries stop. After the cooldown, one
+ * probe request is let through: if it succeeds the circuit closes, and if
+ * not it stays open for another cooldown.
+ *
+ * @see HttpEngine#setCircuitBreaker(CircuitBreaker)
+ */
+public class CircuitBreaker {
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+    private static final int DEFAULT_MINIMUM_CALLS = 10;
+    private static final double DEFAULT_FAILURE_RATE = 0.5;
+    private static final long DEFAULT_SLOW_CALL_MILLIS = 5 * 1000;
+    private static final double DEFAULT_SLOW_CALL_RATE = 0.8;
+    private static final long DEFAULT_COOLDOWN_MILLIS = 10 * 1000;
+
+    /**
+     * Notified when the circuit of a host changes state. Called on the
+     * thread of the request causing the change, so it should be quick.
+     */
+    public interface Listener {
+        void onStateChange(String route, CircuitState from, CircuitState to);
+    }
+
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private volatile double failureRateThreshold = DEFAULT_FAILURE_RATE;
+    private volatile long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+    private volatile double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE;
+    private volatile long cooldownMillis = DEFAULT_COOLDOWN_MILLIS;
+    private volatile Listener listener;
+
+    /**
+     * Sets how many recent requests to each host are counted, and how many
+     * of them are needed before the circuit may open. By default, 20 and 10.
+     */
+    public CircuitBreaker setWindow(int windowSize, int minimumCalls) {
+        if(windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Minimum calls must be between 1 and the window size");
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of failed requests which opens the circuit. By
+     * default, 0.5.
+     */
+    public CircuitBreaker setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * Sets when a request counts as slow, and the fraction of slow requests
+     * which opens the circuit. By default, 5 seconds and 0.8.
+     */
+    public CircuitBreaker setSlowCallThreshold(long slowCallMillis, double slowCallRateThreshold) {
+        this.slowCallMillis = slowCallMillis;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * Sets how long an open circuit waits before letting a probe through.
+     * By default, 10 seconds.
+     */
+    public CircuitBreaker setCooldown(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+        return this;
+    }
+
+    /**
+     * Sets the listener notified of state changes, or null for none.
+     */
+    public CircuitBreaker setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Returns the state of a host's circuit.
+     * @param route the host, as scheme://host:port.
+     */
+    public CircuitState getState(String route) {
+        Circuit circuit = circuits.get(route);
+        return circuit != null ? circuit.getState() : CircuitState.CLOSED;
+    }
+
+    /**
+     * Closes all circuits and forgets the outcomes counted so far, for
+     * example when the network connection changes.
+     */
+    public void reset() {
+        for(String route : circuits.keySet()) {
+            Circuit circuit = circuits.remove(route);
+            if(circuit != null) {
+                circuit.close(route);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a request to the host may be sent now.
+     */
+    boolean allowRequest(String route) {
+        Circuit circuit = circuits.get(route);
+        return circuit == null || circuit.allowRequest(route);
+    }
+
+    /**
+     * Counts the outcome of a request to the host.
+     * @param failed whether the request failed with an IOException or a 5xx response.
+     * @param durationMillis how long it took.
+     */
+    void record(String route, boolean failed, long durationMillis) {
+        Circuit circuit = circuits.get(route);
+        if(circuit == null) {
+            Circuit created = new Circuit();
+            circuit = circuits.putIfAbsent(route, created);
+            if(circuit == null) {
+                circuit = created;
+            }
+        }
+        circuit.record(route, failed, durationMillis >= slowCallMillis);
+    }
+
+    private void notifyListener(String route, CircuitState from, CircuitState to) {
+        Listener l = listener;
+        if(l != null && from != to) {
+            try {
+                l.onStateChange(route, from, to);
+            } catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final class Circuit {
+        // Outcomes of the most recent requests, as a ring of bit flags
+        private static final int FAILED = 1;
+        private static final int SLOW = 2;
+
+        private CircuitState state = CircuitState.CLOSED;
+        private byte[] outcomes = new byte[windowSize];
+        private int count;
+        private int next;
+        private int failures;
+        private int slowCalls;
+        private long retryAt;
+
+        synchronized CircuitState getState() {
+            return state;
+        }
+
+        boolean allowRequest(String route) {
+            synchronized(this) {
+                if(state == CircuitState.CLOSED) {
+                    return true;
+                }
+                long now = System.currentTimeMillis();
+                if(now < retryAt) {
+                    return false;
+                }
+                // Let one probe through. If it never reports back another
+                // one goes after the next cooldown
+                retryAt = now + cooldownMillis;
+                if(state == CircuitState.HALF_OPEN) {
+                    return true;
+                }
+                state = CircuitState.HALF_OPEN;
+            }
+            notifyListener(route, CircuitState.OPEN, CircuitState.HALF_OPEN);
+            return true;
+        }
+
+        void record(String route, boolean failed, boolean slow) {
+            CircuitState from;
+            CircuitState to;
+            synchronized(this) {
+                from = state;
+                if(state == CircuitState.HALF_OPEN) {
+                    if(failed || slow) {
+                        open();
+                    } else {
+                        state = CircuitState.CLOSED;
+                        clear();
+                    }
+                } else if(state == CircuitState.CLOSED) {
+                    add((failed ? FAILED : 0) | (slow ? SLOW : 0));
+                    if(count >= minimumCalls && (failures >= failureRateThreshold * count
+                            || slowCalls >= slowCallRateThreshold * count)) {
+                        open();
+                    }
+                }
+                // Requests sent before the circuit opened don't count
+                to = state;
+            }
+            notifyListener(route, from, to);
+        }
+
+        void close(String route) {
+            CircuitState from;
+            synchronized(this) {
+                from = state;
+                state = CircuitState.CLOSED;
+                clear();
+            }
+            notifyListener(route, from, CircuitState.CLOSED);
+        }
+
+        private void open() {
+            state = CircuitState.OPEN;
+            retryAt = System.currentTimeMillis() + cooldownMillis;
+            clear();
+        }
+
+        private void add(int outcome) {
+            if(count == outcomes.length) {
+                int old = outcomes[next];
+                if((old & FAILED) != 0) {
+                    failures--;
+                }
+                if((old & SLOW) != 0) {
+                    slowCalls--;
+                }
+            } else {
+                count++;
+            }
+            outcomes[next] = (byte) outcome;
+            next = (next + 1) % outcomes.length;
+            if((outcome & FAILED) != 0) {
+                failures++;
+            }
+            if((outcome & SLOW) != 0) {
+                slowCalls++;
+            }
+        }
+
+        private void clear() {
+            if(outcomes.length != windowSize) {
+                outcomes = new byte[windowSize];
+            }
+            count = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+/**
+ * The state of a {@link CircuitBreaker} for one host.
+ */
+public enum CircuitState {
+    /**
+     * Requests go through, and their outcomes are counted. This is the
+     * state every host starts in.
+     */
+    CLOSED,
+
+    /**
+     * Too many recent requests failed or were slow. New requests fail
+     * straight away with a {@link CircuitOpenException} until the cooldown
+     * has passed.
+     */
+    OPEN,
+
+    /**
+     * The cooldown has passed and a single probe request is let through.
+     * The circuit closes if it succeeds and opens again if it doesn't.
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,289 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Limits the number of requests in flight to each host, adjusting the
+ * limit to the latency the host shows, in the manner of TCP Vegas.
+ * <p>
+ * The lowest round trip time seen is taken as the host's latency without
+ * load. When the average round trip time grows past it, the difference is
+ * read as requests queueing at the host, and the limit is lowered if more
+ * than a few requests are estimated to queue, or raised if hardly any are.
+ * Round trip times run from the request being written on its connection
+ * to the response headers, so waiting for a pooled connection and reading
+ * the body don't count. Timeouts and 429 or 503 responses cut the limit by
+ * a tenth. The lowest round trip time is forgotten every so often, so the
+ * estimate follows a host whose latency has changed for good.
+ * <p>
+ * Over HTTP/1.1 each request in flight needs a pooled connection of its
+ * own, and time spent waiting for one doesn't show in the round trip
+ * time, so there the limit never goes past the engine's connection limit.
+ * Only hosts answering over HTTP/2 may go up to the highest limit.
+ * <p>
+ * A request takes its permit before it is handed to the executor, and
+ * keeps it through its retries. Requests over the limit wait in a queue
+ * rather than on a thread, and are handed to the executor in the order
+ * they were made as permits come back. Hedges are only sent while the
+ * host is under its limit.
+ *
+ * @see HttpEngine#setAdaptiveConcurrency(boolean)
+ */
+public class ConcurrencyLimiter {
+    /**
+     * The context attribute holding the {@link System#nanoTime()} at which
+     * the request was handed to its connection.
+     */
+    static final String REQUEST_SENT = "com.loopj.http.request-sent";
+
+    /**
+     * The context attribute set to true when the request went over an
+     * HTTP/2 connection, where it didn't need a connection to itself.
+     */
+    static final String MULTIPLEXED = "com.loopj.http.multiplexed";
+
+    private static final int DEFAULT_INITIAL_LIMIT = 10;
+    private static final int DEFAULT_MAX_LIMIT = 200;
+    private static final int PROBE_INTERVAL = 1000;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double RTT_SMOOTHING = 0.125;
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    private final int initialLimit;
+    private final int maxLimit;
+    private volatile int connectionLimit = Integer.MAX_VALUE;
+
+    ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param initialLimit the limit for a host no requests were sent to yet.
+     * @param maxLimit the highest limit for any host.
+     */
+    ConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.initialLimit = Math.max(1, Math.min(initialLimit, maxLimit));
+        this.maxLimit = maxLimit;
+    }
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Sets the number of connections a single host can have in the pool,
+     * which caps the limit of hosts answering over HTTP/1.1.
+     */
+    void setConnectionLimit(int connectionLimit) {
+        this.connectionLimit = Math.max(1, connectionLimit);
+    }
+
+    /**
+     * Hands a request to the executor once its host has a permit free, and
+     * gives the request the permit.
+     */
+    void submit(String route, RequestFuture future, Executor executor) {
+        dispatch(getRoute(route).submit(new Waiter(future, executor)));
+    }
+
+    /**
+     * Takes a permit if the host is under its limit, for hedges.
+     * @return the permit, or null if the host is at its limit.
+     */
+    Permit tryAcquire(String route) {
+        return getRoute(route).tryAcquire();
+    }
+
+    /**
+     * Adjusts the limit to the round trip time of an attempt.
+     * @param rttNanos the time from sending the request to its response headers.
+     * @param multiplexed true if the attempt went over HTTP/2.
+     */
+    void sample(Permit permit, long rttNanos, boolean multiplexed) {
+        permit.route.sample(permit, rttNanos, multiplexed);
+    }
+
+    /**
+     * Cuts the limit after the request timed out or the host said it was
+     * overloaded.
+     */
+    void backOff(Permit permit) {
+        permit.route.backOff();
+    }
+
+    /**
+     * Hands a permit back once its request is done, passing it on to the
+     * next request waiting for the host.
+     */
+    void release(Permit permit) {
+        dispatch(permit.route.release());
+    }
+
+    /**
+     * Returns a snapshot of the limit and latency estimates of each host
+     * requests were sent to, keyed by scheme, host and port.
+     */
+    public Map<String, ConcurrencyStats> getStats() {
+        Map<String, ConcurrencyStats> stats = new HashMap<String, ConcurrencyStats>();
+        for(Map.Entry<String, Route> entry : routes.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    private Route getRoute(String key) {
+        Route route = routes.get(key);
+        if(route == null) {
+            Route created = new Route();
+            route = routes.putIfAbsent(key, created);
+            if(route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    // Hands out permits outside the route's lock
+    private void dispatch(List<Waiter> ready) {
+        for(Waiter waiter : ready) {
+            AsyncHttpRequest request = waiter.future.getRequest();
+            request.setPermit(waiter.permit);
+            if(waiter.future.isDone()) {
+                // cancelled on the way, done() may already have run
+                request.releasePermit();
+                continue;
+            }
+            try {
+                waiter.executor.execute(waiter.future);
+            } catch(RejectedExecutionException e) {
+                // done() gives the permit back
+                waiter.future.failQueued(new IOException("Executor rejected request for " + request.getRequest().getURI()));
+            }
+        }
+    }
+
+    static final class Permit {
+        final Route route;
+        final int inFlight;
+
+        Permit(Route route, int inFlight) {
+            this.route = route;
+            this.inFlight = inFlight;
+        }
+    }
+
+    private static final class Waiter {
+        final RequestFuture future;
+        final Executor executor;
+        Permit permit;
+
+        Waiter(RequestFuture future, Executor executor) {
+            this.future = future;
+            this.executor = executor;
+        }
+    }
+
+    private final class Route {
+        private double limit = Math.min(initialLimit, connectionLimit);
+        private int inFlight;
+        private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+        // In nanoseconds
+        private long minRtt;
+        private double smoothedRtt;
+        private int samples;
+
+        synchronized List<Waiter> submit(Waiter waiter) {
+            waiters.add(waiter);
+            return drain();
+        }
+
+        synchronized Permit tryAcquire() {
+            if(inFlight >= (int) limit || !waiters.isEmpty()) {
+                return null;
+            }
+            inFlight++;
+            return new Permit(this, inFlight);
+        }
+
+        synchronized List<Waiter> release() {
+            inFlight--;
+            return drain();
+        }
+
+        synchronized void backOff() {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+        }
+
+        synchronized void sample(Permit permit, long rtt, boolean multiplexed) {
+            // Past the pool's connections requests would only wait for one
+            int max = multiplexed ? maxLimit : Math.min(maxLimit, connectionLimit);
+            limit = Math.min(limit, max);
+            rtt = Math.max(1, rtt);
+            smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt + RTT_SMOOTHING * (rtt - smoothedRtt);
+            if(++samples % PROBE_INTERVAL == 0) {
+                // Forget the lowest round trip time, so it can go up again
+                minRtt = rtt;
+                return;
+            }
+            if(minRtt == 0 || rtt < minRtt) {
+                minRtt = rtt;
+            }
+
+            double step = Math.max(1, Math.log10(limit));
+            double queued = limit * (1 - minRtt / smoothedRtt);
+            if(queued >= 6 * step) {
+                limit = Math.max(1, limit - step);
+            } else if(queued <= 3 * step && permit.inFlight * 2 >= (int) limit) {
+                // Only raise the limit when it is actually being used
+                limit = Math.min(max, limit + step);
+            }
+        }
+
+        // Gives the free permits to the requests waiting longest, skipping
+        // those cancelled or failed while they waited
+        private List<Waiter> drain() {
+            List<Waiter> ready = new ArrayList<Waiter>();
+            while(inFlight < (int) limit && !waiters.isEmpty()) {
+                Waiter waiter = waiters.removeFirst();
+                if(waiter.future.isDone()) {
+                    continue;
+                }
+                inFlight++;
+                waiter.permit = new Permit(this, inFlight);
+                ready.add(waiter);
+            }
+            return ready;
+        }
+
+        synchronized ConcurrencyStats getStats() {
+            return new ConcurrencyStats((int) limit, inFlight, minRtt / 1000000, Math.round(smoothedRtt / 1000000));
+        }
+    }
+}
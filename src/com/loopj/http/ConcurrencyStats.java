@@ -0,0 +1,74 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+/**
+ * A snapshot of a {@link ConcurrencyLimiter}'s state for one host.
+ *
+ * @see ConcurrencyLimiter#getStats()
+ */
+public class ConcurrencyStats {
+    private final int limit;
+    private final int inFlight;
+    private final long minRttMillis;
+    private final long smoothedRttMillis;
+
+    ConcurrencyStats(int limit, int inFlight, long minRttMillis, long smoothedRttMillis) {
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.minRttMillis = minRttMillis;
+        this.smoothedRttMillis = smoothedRttMillis;
+    }
+
+    /**
+     * Returns the number of requests which may be in flight at once.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the number of requests in flight.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the lowest recent round trip time, taken as the host's
+     * latency without load.
+     */
+    public long getMinRttMillis() {
+        return minRttMillis;
+    }
+
+    /**
+     * Returns the moving average of the round trip time.
+     */
+    public long getSmoothedRttMillis() {
+        return smoothedRttMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyStats[limit=" + limit + ", inFlight=" + inFlight
+                + ", minRtt=" + minRttMillis + "ms, rtt=" + smoothedRttMillis + "ms]";
+    }
+}
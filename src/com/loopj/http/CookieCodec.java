@@ -0,0 +1,190 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+
+/**
+ * Reads and writes the binary cookie format used by {@link CookieIndex}.
+ * <p>
+ * A blob starts with a magic byte and a format version, followed by the
+ * number of domain sections. Each section holds the cookie domain, the
+ * section length in bytes, the number of cookies and then each cookie as a
+ * length-prefixed record, so a reader can skip whole sections or single
+ * records without decoding them.
+ */
+final class CookieCodec {
+    static final int MAGIC = 0xC0;
+    static final int VERSION = 2;
+    // Version 1 grouped sections by an approximated registrable domain
+    // rather than by the cookies' own domain
+    static final int VERSION_REGISTRABLE_DOMAINS = 1;
+
+    private static final int FLAG_SECURE = 1;
+    private static final int FLAG_DOMAIN_ATTR = 2;
+    private static final int FLAG_EXPIRY = 4;
+    private static final int FLAG_PATH = 8;
+    private static final int FLAG_COMMENT = 16;
+    private static final int FLAG_VALUE = 32;
+
+    private CookieCodec() {}
+
+    static void writeHeader(DataOutputStream out, int sections) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(sections);
+    }
+
+    /**
+     * Reads the magic byte and format version of a blob, after which the
+     * number of sections follows.
+     * @throws IOException if the blob isn't in a format this version understands.
+     */
+    static int readVersion(DataInputStream in) throws IOException {
+        if(in.readUnsignedByte() != MAGIC) {
+            throw new IOException("Not a cookie blob");
+        }
+        int version = in.readUnsignedByte();
+        if(version < VERSION_REGISTRABLE_DOMAINS || version > VERSION) {
+            throw new IOException("Unsupported cookie blob version " + version);
+        }
+        return version;
+    }
+
+    /**
+     * Encodes the body of a domain section: the cookie count followed by
+     * each cookie as a length-prefixed record.
+     */
+    static byte[] encodeSection(List<Cookie> cookies) throws IOException {
+        ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(cookies.size());
+
+        ExposedByteArrayOutputStream record = new ExposedByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        for(Cookie cookie : cookies) {
+            record.reset();
+            writeCookie(recordOut, cookie);
+            recordOut.flush();
+            out.writeInt(record.size());
+            out.write(record.buffer(), 0, record.size());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the cookies of a domain section into the given list, skipping
+     * cookies which have expired by the given date.
+     */
+    static void decodeSection(byte[] section, Date now, List<Cookie> into) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(section));
+        int count = in.readInt();
+        for(int i = 0; i < count; i++) {
+            int length = in.readInt();
+            byte[] record = new byte[length];
+            in.readFully(record);
+            Cookie cookie = readCookie(new DataInputStream(new ByteArrayInputStream(record)));
+            if(!cookie.isExpired(now)) {
+                into.add(cookie);
+            }
+        }
+    }
+
+    private static void writeCookie(DataOutputStream out, Cookie cookie) throws IOException {
+        int flags = 0;
+        if(cookie.isSecure()) {
+            flags |= FLAG_SECURE;
+        }
+        if(!(cookie instanceof ClientCookie) || ((ClientCookie) cookie).containsAttribute(ClientCookie.DOMAIN_ATTR)) {
+            flags |= FLAG_DOMAIN_ATTR;
+        }
+        if(cookie.getExpiryDate() != null) {
+            flags |= FLAG_EXPIRY;
+        }
+        if(cookie.getPath() != null) {
+            flags |= FLAG_PATH;
+        }
+        if(cookie.getComment() != null) {
+            flags |= FLAG_COMMENT;
+        }
+        if(cookie.getValue() != null) {
+            flags |= FLAG_VALUE;
+        }
+
+        out.writeByte(flags);
+        out.writeUTF(cookie.getName());
+        if(cookie.getValue() != null) {
+            out.writeUTF(cookie.getValue());
+        }
+        out.writeUTF(cookie.getDomain() != null ? cookie.getDomain() : "");
+        if(cookie.getPath() != null) {
+            out.writeUTF(cookie.getPath());
+        }
+        if(cookie.getExpiryDate() != null) {
+            out.writeLong(cookie.getExpiryDate().getTime());
+        }
+        if(cookie.getComment() != null) {
+            out.writeUTF(cookie.getComment());
+        }
+        out.writeByte(cookie.getVersion());
+    }
+
+    private static Cookie readCookie(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        String name = in.readUTF();
+        String value = (flags & FLAG_VALUE) != 0 ? in.readUTF() : null;
+
+        BasicClientCookie cookie = new BasicClientCookie(name, value);
+        String domain = in.readUTF();
+        cookie.setDomain(domain);
+        if((flags & FLAG_DOMAIN_ATTR) != 0) {
+            cookie.setAttribute(ClientCookie.DOMAIN_ATTR, domain);
+        }
+        if((flags & FLAG_PATH) != 0) {
+            cookie.setPath(in.readUTF());
+        }
+        if((flags & FLAG_EXPIRY) != 0) {
+            cookie.setExpiryDate(new Date(in.readLong()));
+        }
+        if((flags & FLAG_COMMENT) != 0) {
+            cookie.setComment(in.readUTF());
+        }
+        cookie.setVersion(in.readUnsignedByte());
+        cookie.setSecure((flags & FLAG_SECURE) != 0);
+        return cookie;
+    }
+
+    // Lets records be copied out without the extra array toByteArray() makes
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
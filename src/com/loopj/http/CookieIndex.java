@@ -0,0 +1,427 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.Cookie;
+
+/**
+ * A concurrent collection of cookies indexed by domain, so the cookies for
+ * a request can be found without scanning the whole jar.
+ * <p>
+ * Cookies are identified by their name, domain and path as described in
+ * RFC 6265, so identically named cookies from different domains or paths
+ * are kept apart. Matching follows the RFC 6265 domain-match and path-match
+ * rules.
+ * <p>
+ * Cookies are grouped by their own domain, and a request looks up the
+ * groups of its host and of every parent domain of it, so
+ * <code>www.example.com</code> finds the cookies of
+ * <code>www.example.com</code>, <code>example.com</code> and
+ * <code>com</code>. Which of those match is then decided by the RFC rules
+ * alone.
+ * <p>
+ * An index can be written to a compact binary blob with {@link #toByteArray()}
+ * and restored with {@link #load(byte[])}. Restoring only splits the blob
+ * into per-domain sections, each section is decoded the first time a cookie
+ * of that domain is needed, and sections which are never touched are written
+ * back out unchanged.
+ */
+public class CookieIndex {
+    private static final Comparator<Cookie> PATH_LENGTH_ORDER = new Comparator<Cookie>() {
+        public int compare(Cookie lhs, Cookie rhs) {
+            // Cookies with longer paths are listed first (RFC 6265 5.4)
+            return normalizePath(rhs.getPath()).length() - normalizePath(lhs.getPath()).length();
+        }
+    };
+
+    private final ConcurrentHashMap<String, Cookie> cookies = new ConcurrentHashMap<String, Cookie>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Cookie>> domains = new ConcurrentHashMap<String, ConcurrentHashMap<String, Cookie>>();
+    private final ConcurrentHashMap<String, byte[]> encodedSections = new ConcurrentHashMap<String, byte[]>();
+    private final Object decodeLock = new Object();
+    private final LinkedList<String> sweepQueue = new LinkedList<String>();
+
+    /**
+     * Adds a cookie, replacing any cookie with the same name, domain and path.
+     * @return the replaced cookie, or null.
+     */
+    public Cookie put(Cookie cookie) {
+        String key = key(cookie);
+        String domain = normalizeDomain(cookie.getDomain());
+        decodeSection(domain);
+        Cookie previous = cookies.put(key, cookie);
+        bucket(domain, true).put(key, cookie);
+        return previous;
+    }
+
+    /**
+     * Removes the cookie stored under the given key.
+     * @return the removed cookie, or null.
+     */
+    public Cookie remove(String key) {
+        decodeSection(domainOfKey(key));
+        Cookie removed = cookies.remove(key);
+        if(removed != null) {
+            ConcurrentHashMap<String, Cookie> bucket = bucket(normalizeDomain(removed.getDomain()), false);
+            if(bucket != null) {
+                bucket.remove(key);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the cookie stored under the given key, or null.
+     */
+    public Cookie get(String key) {
+        decodeSection(domainOfKey(key));
+        return cookies.get(key);
+    }
+
+    /**
+     * Returns the cookies which should be sent with a request.
+     * @param host the request host.
+     * @param path the request path.
+     * @param secure whether the request is made over a secure connection.
+     * @param now the current date, expired cookies are skipped.
+     */
+    public List<Cookie> match(String host, String path, boolean secure, Date now) {
+        String requestHost = host.toLowerCase(Locale.ENGLISH);
+        String requestPath = normalizePath(path);
+
+        List<Cookie> matched = new ArrayList<Cookie>();
+        String domain = requestHost;
+        while(true) {
+            decodeSection(domain);
+            ConcurrentHashMap<String, Cookie> bucket = domains.get(domain);
+            if(bucket != null) {
+                for(Cookie cookie : bucket.values()) {
+                    if(cookie.isSecure() && !secure) {
+                        continue;
+                    }
+                    if(cookie.isExpired(now)) {
+                        continue;
+                    }
+                    if(domainMatches(requestHost, cookie) && pathMatches(requestPath, cookie.getPath())) {
+                        matched.add(cookie);
+                    }
+                }
+            }
+
+            // Parent domains of the host may hold domain cookies for it
+            int dot = domain.indexOf('.');
+            if(dot < 0 || isIpAddress(requestHost)) {
+                break;
+            }
+            domain = domain.substring(dot + 1);
+        }
+        if(matched.size() > 1) {
+            Collections.sort(matched, PATH_LENGTH_ORDER);
+        }
+        return matched;
+    }
+
+    /**
+     * Removes all cookies which have expired by the given date.
+     * @return the keys of the removed cookies.
+     */
+    public List<String> removeExpired(Date date) {
+        decodeAll();
+        List<String> removed = new ArrayList<String>();
+        for(ConcurrentHashMap.Entry<String, Cookie> entry : cookies.entrySet()) {
+            if(entry.getValue().isExpired(date)) {
+                remove(entry.getKey());
+                removed.add(entry.getKey());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the expired cookies of a limited number of domains, so expiry
+     * can be spread over many short calls. Each call continues where the
+     * previous one stopped, and a full pass covers every domain.
+     * @param date the current date.
+     * @param maxDomains the maximum number of domains to sweep in this call.
+     * @return the keys of the removed cookies.
+     */
+    public List<String> removeExpired(Date date, int maxDomains) {
+        List<String> batch = new ArrayList<String>(maxDomains);
+        synchronized(sweepQueue) {
+            if(sweepQueue.isEmpty()) {
+                HashSet<String> all = new HashSet<String>(domains.keySet());
+                all.addAll(encodedSections.keySet());
+                sweepQueue.addAll(all);
+            }
+            while(batch.size() < maxDomains && !sweepQueue.isEmpty()) {
+                batch.add(sweepQueue.removeFirst());
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for(String domain : batch) {
+            // Decoding drops the expired cookies of a section by itself
+            decodeSection(domain);
+            ConcurrentHashMap<String, Cookie> bucket = domains.get(domain);
+            if(bucket == null) {
+                continue;
+            }
+            for(ConcurrentHashMap.Entry<String, Cookie> entry : bucket.entrySet()) {
+                if(entry.getValue().isExpired(date)) {
+                    remove(entry.getKey());
+                    removed.add(entry.getKey());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the keys of all stored cookies.
+     */
+    public Set<String> keys() {
+        decodeAll();
+        return cookies.keySet();
+    }
+
+    /**
+     * Returns all stored cookies.
+     */
+    public Collection<Cookie> values() {
+        decodeAll();
+        return cookies.values();
+    }
+
+    public int size() {
+        decodeAll();
+        return cookies.size();
+    }
+
+    public void clear() {
+        synchronized(decodeLock) {
+            encodedSections.clear();
+            cookies.clear();
+            domains.clear();
+        }
+    }
+
+    /**
+     * Replaces the contents of this index with the cookies in a blob written
+     * by {@link #toByteArray()}. The cookies themselves are decoded lazily.
+     * @throws IOException if the blob is truncated or in an unknown format, the index is left empty.
+     */
+    public void load(byte[] blob) throws IOException {
+        synchronized(decodeLock) {
+            clear();
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+                int version = CookieCodec.readVersion(in);
+                int sections = in.readInt();
+                for(int i = 0; i < sections; i++) {
+                    String domain = in.readUTF();
+                    byte[] section = new byte[in.readInt()];
+                    in.readFully(section);
+                    encodedSections.put(domain, section);
+                }
+                if(version == CookieCodec.VERSION_REGISTRABLE_DOMAINS) {
+                    // Older sections mix cookies of several domains, which a
+                    // lookup by domain can't find, so regroup them right away
+                    decodeAll();
+                }
+            } catch(IOException e) {
+                encodedSections.clear();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes all cookies to a compact binary blob which can be restored with
+     * {@link #load(byte[])}. Sections which were never decoded are copied as
+     * they are.
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            synchronized(decodeLock) {
+                List<String> decoded = new ArrayList<String>();
+                for(ConcurrentHashMap.Entry<String, ConcurrentHashMap<String, Cookie>> entry : domains.entrySet()) {
+                    if(!entry.getValue().isEmpty()) {
+                        decoded.add(entry.getKey());
+                    }
+                }
+
+                CookieCodec.writeHeader(out, decoded.size() + encodedSections.size());
+                for(ConcurrentHashMap.Entry<String, byte[]> entry : encodedSections.entrySet()) {
+                    writeSection(out, entry.getKey(), entry.getValue());
+                }
+                for(String domain : decoded) {
+                    ConcurrentHashMap<String, Cookie> bucket = domains.get(domain);
+                    writeSection(out, domain, CookieCodec.encodeSection(new ArrayList<Cookie>(bucket.values())));
+                }
+            }
+            out.flush();
+        } catch(IOException e) {
+            // Can't happen when writing to memory
+            throw new IllegalStateException(e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeSection(DataOutputStream out, String domain, byte[] section) throws IOException {
+        out.writeUTF(domain);
+        out.writeInt(section.length);
+        out.write(section);
+    }
+
+    private void decodeSection(String domain) {
+        if(!encodedSections.containsKey(domain)) {
+            return;
+        }
+
+        // The section is only dropped once its cookies are in the index, so
+        // threads which don't find it never miss its cookies
+        synchronized(decodeLock) {
+            byte[] section = encodedSections.get(domain);
+            if(section == null) {
+                return;
+            }
+            List<Cookie> decoded = new ArrayList<Cookie>();
+            try {
+                CookieCodec.decodeSection(section, new Date(), decoded);
+            } catch(IOException e) {
+                // Keep whatever was readable before the damaged record
+                e.printStackTrace();
+            }
+            for(Cookie cookie : decoded) {
+                String key = key(cookie);
+                cookies.put(key, cookie);
+                bucket(normalizeDomain(cookie.getDomain()), true).put(key, cookie);
+            }
+            encodedSections.remove(domain);
+        }
+    }
+
+    private void decodeAll() {
+        if(encodedSections.isEmpty()) {
+            return;
+        }
+        for(String domain : new ArrayList<String>(encodedSections.keySet())) {
+            decodeSection(domain);
+        }
+    }
+
+    private ConcurrentHashMap<String, Cookie> bucket(String domain, boolean create) {
+        ConcurrentHashMap<String, Cookie> bucket = domains.get(domain);
+        if(bucket == null && create) {
+            bucket = new ConcurrentHashMap<String, Cookie>();
+            ConcurrentHashMap<String, Cookie> existing = domains.putIfAbsent(domain, bucket);
+            if(existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+
+    //
+    // RFC 6265 matching
+    //
+
+    /**
+     * Returns the key identifying a cookie: its name, domain and path.
+     */
+    public static String key(Cookie cookie) {
+        return cookie.getName() + ";" + normalizeDomain(cookie.getDomain()) + ";" + normalizePath(cookie.getPath());
+    }
+
+    static boolean domainMatches(String host, Cookie cookie) {
+        String domain = normalizeDomain(cookie.getDomain());
+        if(host.equals(domain)) {
+            return true;
+        }
+        if(cookie instanceof ClientCookie && !((ClientCookie) cookie).containsAttribute(ClientCookie.DOMAIN_ATTR)) {
+            // Host-only cookie
+            return false;
+        }
+        return !isIpAddress(host) && host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.';
+    }
+
+    static boolean pathMatches(String requestPath, String cookiePath) {
+        String path = normalizePath(cookiePath);
+        if(requestPath.equals(path)) {
+            return true;
+        }
+        return requestPath.startsWith(path)
+                && (path.endsWith("/") || requestPath.charAt(path.length()) == '/');
+    }
+
+    // Keys are name;domain;path, and neither names nor domains contain a ';'
+    private static String domainOfKey(String key) {
+        int start = key.indexOf(';');
+        int end = key.indexOf(';', start + 1);
+        if(start < 0 || end < 0) {
+            return "";
+        }
+        return key.substring(start + 1, end);
+    }
+
+    private static String normalizeDomain(String domain) {
+        if(domain == null) {
+            return "";
+        }
+        domain = domain.toLowerCase(Locale.ENGLISH);
+        return domain.startsWith(".") ? domain.substring(1) : domain;
+    }
+
+    private static String normalizePath(String path) {
+        return path == null || path.length() == 0 ? "/" : path;
+    }
+
+    private static boolean isIpAddress(String host) {
+        if(host.indexOf(':') >= 0) {
+            return true;
+        }
+        for(int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if(c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+
+/**
+ * Where a {@link PersistentCookieJar} keeps its cookies between sessions.
+ * The jar hands over the whole cookie jar as a single binary blob, so
+ * implementations only have to store and return bytes.
+ * <p>
+ * Calls are never made concurrently by the same jar.
+ *
+ * @see FileCookieStorage
+ * @see com.loopj.http.android.PreferencesCookieStorage
+ */
+public interface CookieStorage {
+    /**
+     * Returns the most recently saved blob, or null if nothing has been saved.
+     */
+    public byte[] load() throws IOException;
+
+    /**
+     * Replaces the saved blob. Implementations should make sure a failed
+     * save leaves the previous blob intact.
+     */
+    public void save(byte[] blob) throws IOException;
+
+    /**
+     * Removes the saved blob.
+     */
+    public void clear() throws IOException;
+}
@@ -0,0 +1,849 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A {@link ResponseCache} which persists responses on disk in a
+ * log-structured store.
+ * <p>
+ * Entries are appended to large memory-mapped segment files, and an
+ * in-memory open-addressed index maps each key's hash to the segment, offset
+ * and length of its latest record. Looking up an entry reads straight from
+ * the mapped segment, so the hot path makes no system calls.
+ * <p>
+ * Segments which are mostly superseded or removed entries are compacted on a
+ * background thread by copying their live records to the active segment, and
+ * the oldest segment is dropped once the cache grows past its maximum size.
+ * Every record carries a CRC32 checksum and the index is rebuilt from the
+ * segments on startup, so a torn write at the tail of the log after a crash
+ * is detected and discarded.
+ * <p>
+ * For example:
+ * <p>
+ * <pre>
+ * AsyncHttpClient client = new AsyncHttpClient();
+ * client.setResponseCache(new DiskResponseCache(new File(context.getCacheDir(), "http"), 32 * 1024 * 1024));
+ * </pre>
+ */
+public class DiskResponseCache implements ResponseCache {
+    private static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int SEGMENT_MAGIC = 0x4C4A4843; // "LJHC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    // keyLength (int), valueLength (int, -1 for removals), keyHash (long), crc (int)
+    private static final int RECORD_HEADER_SIZE = 20;
+    private static final int TOMBSTONE = -1;
+
+    // Compact a sealed segment once less than half of it is still live
+    private static final float COMPACTION_THRESHOLD = 0.5f;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final float INDEX_LOAD_FACTOR = 0.7f;
+    private static final int DELETED = -1;
+
+    private final File directory;
+    private final long maxSize;
+    private final int segmentSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private Segment activeSegment;
+    // Ids are never reused, so a segment outliving clear() can't be mistaken
+    // for a newer one
+    private int nextSegmentId;
+    private boolean closed;
+
+    // Open-addressed index from key hash to record location. A hash of 0
+    // marks an empty slot, a segment of DELETED marks a removed entry.
+    private long[] indexHashes;
+    private int[] indexSegments;
+    private int[] indexOffsets;
+    private int[] indexLengths;
+    private int indexCount;
+    private int indexOccupied;
+
+    private final ExecutorService maintenanceExecutor;
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+    /**
+     * Opens a disk cache in the given directory, recovering any entries
+     * stored by a previous instance.
+     * @param directory the directory to store segment files in, created if necessary.
+     * @param maxSize the maximum number of bytes of segment files to keep.
+     */
+    public DiskResponseCache(File directory, long maxSize) throws IOException {
+        this(directory, maxSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a disk cache in the given directory, recovering any entries
+     * stored by a previous instance.
+     * @param directory the directory to store segment files in, created if necessary.
+     * @param maxSize the maximum number of bytes of segment files to keep.
+     * @param segmentSize the size of each memory-mapped segment file, which also limits the size of a single entry.
+     */
+    public DiskResponseCache(File directory, long maxSize, int segmentSize) throws IOException {
+        if(segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        this.directory = directory;
+        this.maxSize = Math.max(maxSize, 2L * segmentSize);
+        this.segmentSize = segmentSize;
+
+        allocateIndex(INITIAL_INDEX_CAPACITY);
+        maintenanceExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DiskResponseCache compaction");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        recover();
+        scheduleMaintenance();
+    }
+
+    public CacheEntry get(String key) {
+        byte[] keyBytes = toBytes(key);
+        long hash = hash(keyBytes);
+        byte[] value;
+
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(hash);
+            if(slot < 0) {
+                return null;
+            }
+            Segment segment = segments.get(indexSegments[slot]);
+            if(segment == null) {
+                return null;
+            }
+            value = segment.readValue(indexOffsets[slot], keyBytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if(value == null) {
+            // Hash collision with a different key
+            return null;
+        }
+        try {
+            return decodeEntry(value);
+        } catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void put(String key, CacheEntry entry) {
+        byte[] value;
+        try {
+            value = encodeEntry(entry);
+        } catch(IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        byte[] keyBytes = toBytes(key);
+        if(RECORD_HEADER_SIZE + keyBytes.length + value.length > segmentSize - SEGMENT_HEADER_SIZE) {
+            // Too large to ever fit in a segment, drop any older copy instead
+            remove(key);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            append(keyBytes, hash(keyBytes), value);
+        } catch(IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String key) {
+        byte[] keyBytes = toBytes(key);
+        long hash = hash(keyBytes);
+
+        lock.writeLock().lock();
+        try {
+            if(findSlot(hash) >= 0) {
+                append(keyBytes, hash, null);
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for(Segment segment : segments.values()) {
+                segment.delete();
+            }
+            segments.clear();
+            activeSegment = null;
+            allocateIndex(INITIAL_INDEX_CAPACITY);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries currently stored.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the active segment to disk and stops background compaction.
+     * The cache must not be used afterwards.
+     */
+    public void close() {
+        maintenanceExecutor.shutdown();
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            for(Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            activeSegment = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    //
+    // Log writes, called with the write lock held
+    //
+
+    private void append(byte[] keyBytes, long hash, byte[] value) throws IOException {
+        if(closed) {
+            throw new IOException("Cache is closed");
+        }
+        int length = RECORD_HEADER_SIZE + keyBytes.length + (value != null ? value.length : 0);
+        if(activeSegment == null || activeSegment.remaining() < length) {
+            rollSegment();
+        }
+
+        int offset = activeSegment.append(keyBytes, hash, value);
+        if(value != null) {
+            indexPut(hash, activeSegment.id, offset, length);
+            activeSegment.liveBytes += length;
+        } else {
+            indexRemove(hash);
+        }
+
+        if(needsMaintenance()) {
+            scheduleMaintenance();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if(activeSegment != null) {
+            // Make sure the sealed segment is durable before the log moves on,
+            // recovery only verifies checksums in the last segment
+            activeSegment.force();
+        }
+        int id = nextSegmentId++;
+        activeSegment = Segment.create(segmentFile(id), id, segmentSize);
+        segments.put(id, activeSegment);
+    }
+
+
+    //
+    // Compaction and eviction, run on the maintenance thread
+    //
+
+    private boolean needsMaintenance() {
+        if((long) segments.size() * segmentSize > maxSize) {
+            return true;
+        }
+        return findCompactionCandidate() != null;
+    }
+
+    private Segment findCompactionCandidate() {
+        Segment candidate = null;
+        float lowest = 1 - COMPACTION_THRESHOLD;
+        for(Segment segment : segments.values()) {
+            if(segment == activeSegment || segment.writePosition <= SEGMENT_HEADER_SIZE) {
+                continue;
+            }
+            float live = segment.liveBytes / (float) (segment.writePosition - SEGMENT_HEADER_SIZE);
+            if(live < lowest) {
+                lowest = live;
+                candidate = segment;
+            }
+        }
+        return candidate;
+    }
+
+    private void scheduleMaintenance() {
+        if(maintenanceScheduled.compareAndSet(false, true)) {
+            try {
+                maintenanceExecutor.execute(new Runnable() {
+                    public void run() {
+                        maintenanceScheduled.set(false);
+                        runMaintenance();
+                    }
+                });
+            } catch(RejectedExecutionException e) {
+                // Closed
+                maintenanceScheduled.set(false);
+            }
+        }
+    }
+
+    private void runMaintenance() {
+        try {
+            while(true) {
+                Segment segment;
+                boolean evict;
+                lock.readLock().lock();
+                try {
+                    if(closed || segments.isEmpty()) {
+                        return;
+                    }
+                    evict = (long) segments.size() * segmentSize > maxSize;
+                    segment = evict ? segments.firstEntry().getValue() : findCompactionCandidate();
+                    if(segment == null || segment == activeSegment) {
+                        return;
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+
+                if(evict) {
+                    evict(segment);
+                } else {
+                    compact(segment);
+                }
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Drops every entry stored in the segment, then the segment itself
+    private void evict(Segment segment) {
+        lock.writeLock().lock();
+        try {
+            if(segments.get(segment.id) != segment) {
+                // Cleared or closed since it was picked
+                return;
+            }
+            int offset = SEGMENT_HEADER_SIZE;
+            while(offset < segment.writePosition) {
+                int keyLength = segment.buffer.getInt(offset);
+                int valueLength = segment.buffer.getInt(offset + 4);
+                long hash = segment.buffer.getLong(offset + 8);
+                int slot = findSlot(hash);
+                if(slot >= 0 && indexSegments[slot] == segment.id && indexOffsets[slot] == offset) {
+                    indexRemove(hash);
+                }
+                offset += RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            }
+            segments.remove(segment.id);
+            segment.delete();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Copies the live records of a sealed segment to the end of the log, then drops it
+    private void compact(Segment segment) throws IOException {
+        // The lock is taken per record so lookups aren't held up for the whole
+        // segment, and the segment is checked each time in case the cache was
+        // cleared or closed in between
+        int offset = SEGMENT_HEADER_SIZE;
+        while(true) {
+            lock.writeLock().lock();
+            try {
+                if(segments.get(segment.id) != segment) {
+                    return;
+                }
+                if(offset >= segment.writePosition) {
+                    if(activeSegment != null) {
+                        activeSegment.force();
+                    }
+                    segments.remove(segment.id);
+                    segment.delete();
+                    return;
+                }
+
+                int keyLength = segment.buffer.getInt(offset);
+                int valueLength = segment.buffer.getInt(offset + 4);
+                long hash = segment.buffer.getLong(offset + 8);
+                int length = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+                int slot = findSlot(hash);
+                if(valueLength != TOMBSTONE) {
+                    if(slot >= 0 && indexSegments[slot] == segment.id && indexOffsets[slot] == offset) {
+                        byte[] record = segment.readRecord(offset, length);
+                        byte[] keyBytes = new byte[keyLength];
+                        System.arraycopy(record, RECORD_HEADER_SIZE, keyBytes, 0, keyLength);
+                        byte[] value = new byte[valueLength];
+                        System.arraycopy(record, RECORD_HEADER_SIZE + keyLength, value, 0, valueLength);
+                        append(keyBytes, hash, value);
+                    }
+                } else if(slot < 0 && segment.id != segments.firstKey()) {
+                    // Older segments may still hold the removed entry, so the
+                    // removal has to survive until they are gone
+                    byte[] keyBytes = new byte[keyLength];
+                    System.arraycopy(segment.readRecord(offset, length), RECORD_HEADER_SIZE, keyBytes, 0, keyLength);
+                    append(keyBytes, hash, null);
+                }
+                offset += length;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+
+    //
+    // Recovery
+    //
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+
+        TreeMap<Integer, File> segmentFiles = new TreeMap<Integer, File>();
+        for(File file : files) {
+            String name = file.getName();
+            if(name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segmentFiles.put(id, file);
+                } catch(NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+
+        for(Map.Entry<Integer, File> entry : segmentFiles.entrySet()) {
+            Segment segment = Segment.open(entry.getValue(), entry.getKey(), segmentSize);
+            if(segment == null) {
+                // Unreadable or from an incompatible version
+                entry.getValue().delete();
+                continue;
+            }
+            // Registered first, so records it supersedes are taken off its live bytes
+            segments.put(segment.id, segment);
+            boolean last = entry.getKey().equals(segmentFiles.lastKey());
+            replay(segment, last);
+        }
+        if(!segmentFiles.isEmpty()) {
+            nextSegmentId = segmentFiles.lastKey() + 1;
+        }
+
+        if(!segments.isEmpty()) {
+            activeSegment = segments.lastEntry().getValue();
+        }
+    }
+
+    // Rebuilds the index from a segment's records, stopping at the first
+    // invalid record. Checksums are verified for the last segment only, as
+    // earlier segments were forced to disk when they were sealed.
+    private void replay(Segment segment, boolean verifyChecksums) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = SEGMENT_HEADER_SIZE;
+        while(offset + RECORD_HEADER_SIZE <= segment.capacity) {
+            int keyLength = buffer.getInt(offset);
+            int valueLength = buffer.getInt(offset + 4);
+            if(keyLength <= 0 || valueLength < TOMBSTONE) {
+                break;
+            }
+            int length = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            if(length <= 0 || offset + length > segment.capacity) {
+                break;
+            }
+            if(verifyChecksums && buffer.getInt(offset + 16) != segment.checksum(offset, length)) {
+                break;
+            }
+
+            long hash = buffer.getLong(offset + 8);
+            if(valueLength == TOMBSTONE) {
+                indexRemove(hash);
+            } else {
+                indexPut(hash, segment.id, offset, length);
+                segment.liveBytes += length;
+            }
+            offset += length;
+        }
+
+        segment.writePosition = offset;
+        if(verifyChecksums && offset + 4 <= segment.capacity && buffer.getInt(offset) != 0) {
+            // Clear the remains of a torn write so they can never be mistaken
+            // for a valid record once new records are appended before them
+            segment.clearFrom(offset);
+        }
+    }
+
+
+    //
+    // Index
+    //
+
+    private void allocateIndex(int capacity) {
+        indexHashes = new long[capacity];
+        indexSegments = new int[capacity];
+        indexOffsets = new int[capacity];
+        indexLengths = new int[capacity];
+        indexCount = 0;
+        indexOccupied = 0;
+    }
+
+    private int findSlot(long hash) {
+        int mask = indexHashes.length - 1;
+        int slot = spread(hash) & mask;
+        while(indexHashes[slot] != 0) {
+            if(indexHashes[slot] == hash && indexSegments[slot] != DELETED) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void indexPut(long hash, int segmentId, int offset, int length) {
+        int mask = indexHashes.length - 1;
+        int slot = spread(hash) & mask;
+        int free = -1;
+        while(indexHashes[slot] != 0) {
+            if(indexHashes[slot] == hash && indexSegments[slot] != DELETED) {
+                releaseSlot(slot);
+                setSlot(slot, hash, segmentId, offset, length);
+                return;
+            }
+            if(free < 0 && indexSegments[slot] == DELETED) {
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if(free < 0) {
+            free = slot;
+            indexOccupied++;
+        }
+        setSlot(free, hash, segmentId, offset, length);
+        indexCount++;
+
+        if(indexOccupied > indexHashes.length * INDEX_LOAD_FACTOR) {
+            resizeIndex();
+        }
+    }
+
+    private void indexRemove(long hash) {
+        int slot = findSlot(hash);
+        if(slot >= 0) {
+            releaseSlot(slot);
+            indexSegments[slot] = DELETED;
+            indexCount--;
+        }
+    }
+
+    // Accounts for the record a slot pointed to no longer being live
+    private void releaseSlot(int slot) {
+        Segment segment = segments.get(indexSegments[slot]);
+        if(segment != null) {
+            segment.liveBytes -= indexLengths[slot];
+        }
+    }
+
+    private void setSlot(int slot, long hash, int segmentId, int offset, int length) {
+        indexHashes[slot] = hash;
+        indexSegments[slot] = segmentId;
+        indexOffsets[slot] = offset;
+        indexLengths[slot] = length;
+    }
+
+    private void resizeIndex() {
+        long[] hashes = indexHashes;
+        int[] segmentIds = indexSegments;
+        int[] offsets = indexOffsets;
+        int[] lengths = indexLengths;
+
+        int capacity = hashes.length;
+        if(indexCount > capacity * INDEX_LOAD_FACTOR / 2) {
+            capacity *= 2;
+        }
+        allocateIndex(capacity);
+
+        int mask = capacity - 1;
+        for(int i = 0; i < hashes.length; i++) {
+            if(hashes[i] != 0 && segmentIds[i] != DELETED) {
+                int slot = spread(hashes[i]) & mask;
+                while(indexHashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                setSlot(slot, hashes[i], segmentIds[i], offsets[i], lengths[i]);
+                indexCount++;
+                indexOccupied++;
+            }
+        }
+    }
+
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // 64 bit FNV-1a, never 0 since that marks an empty index slot
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+
+    //
+    // Entry serialization
+    //
+
+    private static byte[] encodeEntry(CacheEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.getBody().length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entry.getStatusCode());
+        out.writeUTF(entry.getReasonPhrase() != null ? entry.getReasonPhrase() : "");
+        out.writeLong(entry.getStoredAt());
+        Header[] headers = entry.getHeaders();
+        out.writeInt(headers.length);
+        for(Header header : headers) {
+            out.writeUTF(header.getName());
+            out.writeUTF(header.getValue() != null ? header.getValue() : "");
+        }
+        out.writeInt(entry.getBody().length);
+        out.write(entry.getBody());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static CacheEntry decodeEntry(byte[] value) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        int statusCode = in.readInt();
+        String reasonPhrase = in.readUTF();
+        long storedAt = in.readLong();
+        Header[] headers = new Header[in.readInt()];
+        for(int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(in.readUTF(), in.readUTF());
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new CacheEntry(statusCode, reasonPhrase, headers, body, storedAt);
+    }
+
+    private static byte[] toBytes(String key) {
+        try {
+            return key.getBytes("UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+
+    /**
+     * A single memory-mapped segment file. Records are only ever appended
+     * to the active segment, all other segments are immutable.
+     */
+    private static class Segment {
+        final int id;
+        final File file;
+        final int capacity;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        int liveBytes;
+
+        private Segment(int id, File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+
+        static Segment create(File file, int id, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, SEGMENT_MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            Segment segment = new Segment(id, file, raf, buffer);
+            segment.writePosition = SEGMENT_HEADER_SIZE;
+            return segment;
+        }
+
+        static Segment open(File file, int id, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            long length = raf.length();
+            if(length < SEGMENT_HEADER_SIZE || length > Integer.MAX_VALUE) {
+                raf.close();
+                return null;
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if(buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                raf.close();
+                return null;
+            }
+            return new Segment(id, file, raf, buffer);
+        }
+
+        int remaining() {
+            return capacity - writePosition;
+        }
+
+        int append(byte[] key, long hash, byte[] value) {
+            int offset = writePosition;
+            ByteBuffer out = buffer.duplicate();
+            out.position(offset);
+            out.putInt(key.length);
+            out.putInt(value != null ? value.length : TOMBSTONE);
+            out.putLong(hash);
+            out.putInt(0);
+            out.put(key);
+            if(value != null) {
+                out.put(value);
+            }
+            int length = out.position() - offset;
+            out.putInt(offset + 16, checksum(offset, length));
+            writePosition = offset + length;
+            return offset;
+        }
+
+        // Returns the record's value, or null if it belongs to a different key
+        byte[] readValue(int offset, byte[] key) {
+            ByteBuffer in = buffer.duplicate();
+            int keyLength = in.getInt(offset);
+            int valueLength = in.getInt(offset + 4);
+            if(keyLength != key.length) {
+                return null;
+            }
+            byte[] storedKey = new byte[keyLength];
+            in.position(offset + RECORD_HEADER_SIZE);
+            in.get(storedKey);
+            if(!Arrays.equals(storedKey, key)) {
+                return null;
+            }
+            byte[] value = new byte[valueLength];
+            in.get(value);
+            return value;
+        }
+
+        byte[] readRecord(int offset, int length) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset);
+            byte[] record = new byte[length];
+            in.get(record);
+            return record;
+        }
+
+        int checksum(int offset, int length) {
+            CRC32 crc = new CRC32();
+            byte[] record = readRecord(offset, length);
+            // Skip the checksum field itself
+            crc.update(record, 0, 16);
+            crc.update(record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+            return (int) crc.getValue();
+        }
+
+        void clearFrom(int offset) {
+            ByteBuffer out = buffer.duplicate();
+            out.position(offset);
+            byte[] zeros = new byte[Math.min(8192, capacity - offset)];
+            while(out.remaining() > 0) {
+                out.put(zeros, 0, Math.min(zeros.length, out.remaining()));
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                raf.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void delete() {
+            try {
+                raf.close();
+            } catch(IOException e) {
+                // Deleting anyway
+            }
+            file.delete();
+        }
+    }
+}
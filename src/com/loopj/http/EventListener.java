@@ -0,0 +1,151 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.apache.http.params.HttpParams;
+
+/**
+ * Notified as a request goes through each of its phases, for finding out
+ * where the time goes when requests get slow.
+ * <p>
+ * Override the methods for the phases of interest and read
+ * {@link System#nanoTime()} in them. A request is queued, started, then
+ * makes one or more attempts, each of which may look up the host, connect,
+ * set up TLS, and receive the response headers and body. Failed attempts
+ * may be followed by a sleep in the {@link RetryHandler}. The response is
+ * then handed to the response handler, which parses it and, on Android,
+ * delivers it on the main thread. Connections which are reused skip the
+ * lookup and connect phases, and requests over HTTP/2 skip them as well
+ * once the host's connection is open.
+ * <p>
+ * Methods are called on whichever thread the phase runs on, so they must
+ * be thread-safe and quick. The same listener sees all requests of a
+ * client, told apart by the request passed in.
+ *
+ * @see AsyncHttpClient#setEventListener(EventListener)
+ */
+public abstract class EventListener {
+    /**
+     * A listener which does nothing. This is the default, and costs no
+     * allocations.
+     */
+    public static final EventListener NONE = new EventListener() {};
+
+    // Parameter and context attribute holding the request being sent, so
+    // socket factories and the retry handler can report on it
+    static final String CALL = "com.loopj.http.call";
+
+    /**
+     * Implemented by response handlers which deliver callbacks on another
+     * thread, so that the hand-over can be timed too.
+     */
+    public interface DeliveryAware {
+        /**
+         * Called on the thread about to send a request's messages to the
+         * handler, and with a null call once it is done. Handlers shared
+         * between requests use it to tell which request a message is for.
+         */
+        void setEventListener(EventListener listener, AsyncHttpRequest call);
+    }
+
+    /** The request was handed to the client and waits for a thread. */
+    public void callQueued(AsyncHttpRequest call) {}
+
+    /** The request started running on a thread of the pool. */
+    public void callStart(AsyncHttpRequest call) {}
+
+    /**
+     * An attempt to send the request is about to start.
+     * @param attempt the attempt number, starting at 1.
+     */
+    public void attemptStart(AsyncHttpRequest call, int attempt) {}
+
+    /** An attempt failed, and may be retried. */
+    public void attemptFailed(AsyncHttpRequest call, int attempt, IOException e) {}
+
+    public void dnsStart(AsyncHttpRequest call, String host) {}
+
+    public void dnsEnd(AsyncHttpRequest call, String host, InetAddress[] addresses) {}
+
+    /**
+     * A connection to one of the host's addresses is being opened. Hosts
+     * with several addresses may have several connects under way at once.
+     */
+    public void connectStart(AsyncHttpRequest call, InetSocketAddress address) {}
+
+    public void connectEnd(AsyncHttpRequest call, InetSocketAddress address) {}
+
+    public void connectFailed(AsyncHttpRequest call, InetSocketAddress address, IOException e) {}
+
+    public void secureConnectStart(AsyncHttpRequest call, String host) {}
+
+    public void secureConnectEnd(AsyncHttpRequest call, String host) {}
+
+    /** The response headers arrived, ending the time to first byte. */
+    public void responseHeadersEnd(AsyncHttpRequest call, int statusCode) {}
+
+    /** The response body was read in full. */
+    public void responseBodyEnd(AsyncHttpRequest call, long bytes) {}
+
+    /**
+     * The response body was sent gzip-compressed, and decoded to the number
+     * of bytes passed to {@link #responseBodyEnd}. Called right after it.
+     */
+    public void responseBodyDecoded(AsyncHttpRequest call, long bytes) {}
+
+    /** The retry handler starts waiting before the next attempt. */
+    public void retrySleepStart(AsyncHttpRequest call, long millis) {}
+
+    public void retrySleepEnd(AsyncHttpRequest call) {}
+
+    /** The response is handed to the response handler, which parses it. */
+    public void handlerStart(AsyncHttpRequest call) {}
+
+    public void handlerEnd(AsyncHttpRequest call) {}
+
+    /** The response handler's callback starts running on the delivery thread. */
+    public void deliveryStart(AsyncHttpRequest call) {}
+
+    public void deliveryEnd(AsyncHttpRequest call) {}
+
+    /** The request finished with a response. */
+    public void callEnd(AsyncHttpRequest call) {}
+
+    /** The request failed, after any retries. */
+    public void callFailed(AsyncHttpRequest call, IOException e) {}
+
+    /**
+     * The request was cancelled, either while queued, in which case it
+     * never starts, or while running, in which case it ends soon after.
+     */
+    public void callCanceled(AsyncHttpRequest call) {}
+
+    /**
+     * Returns the request whose connection is set up with the given
+     * parameters, or null if it has no listener.
+     */
+    static AsyncHttpRequest getCall(HttpParams params) {
+        return params != null ? (AsyncHttpRequest) params.getParameter(CALL) : null;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link CookieStorage} which keeps the cookie jar in a plain file, for
+ * use outside of Android.
+ * <p>
+ * Each save writes a temporary file next to the target, forces it to disk
+ * and renames it over the target, so a crash mid-save leaves either the old
+ * or the new jar, never a torn one. Where the rename can't replace an
+ * existing file the old jar is first moved to a backup file, which is
+ * only deleted once the new jar is in place and is restored on the next
+ * load if a crash left no jar behind.
+ * <p>
+ * For example:
+ * <p>
+ * <pre>
+ * CookieStorage storage = new FileCookieStorage(new File("cookies.bin"));
+ * client.setCookieStore(new PersistentCookieJar(storage));
+ * </pre>
+ */
+public class FileCookieStorage implements CookieStorage {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    private final File file;
+    private final File tempFile;
+    private final File backupFile;
+
+    public FileCookieStorage(File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        this.backupFile = new File(file.getPath() + BACKUP_SUFFIX);
+    }
+
+    public byte[] load() throws IOException {
+        if(!file.exists()) {
+            // A save was interrupted after moving the old jar aside
+            if(!backupFile.exists()) {
+                return null;
+            }
+            if(!backupFile.renameTo(file)) {
+                throw new IOException("Can't restore cookie file " + file);
+            }
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("Cookie file too large: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of cookie file: " + file);
+                }
+            }
+            return buffer.array();
+        } finally {
+            in.close();
+        }
+    }
+
+    public void save(byte[] blob) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent);
+        }
+
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(blob);
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+
+        if(!tempFile.renameTo(file)) {
+            // Some platforms won't rename over an existing file, so move the
+            // old jar aside and keep it until the new one is in place
+            backupFile.delete();
+            if(file.exists() && !file.renameTo(backupFile)) {
+                throw new IOException("Can't replace cookie file " + file);
+            }
+            if(!tempFile.renameTo(file)) {
+                backupFile.renameTo(file);
+                throw new IOException("Can't replace cookie file " + file);
+            }
+            backupFile.delete();
+        }
+    }
+
+    public void clear() throws IOException {
+        tempFile.delete();
+        backupFile.delete();
+        if(file.exists() && !file.delete()) {
+            throw new IOException("Can't delete cookie file " + file);
+        }
+    }
+}
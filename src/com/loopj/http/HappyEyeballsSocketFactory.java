@@ -0,0 +1,232 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * A {@link ResolvingSocketFactory} which races connections to a host's
+ * addresses as described in RFC 8305 (Happy Eyeballs), instead of trying
+ * them one after another.
+ * <p>
+ * Addresses are interleaved by family, starting with the family of the
+ * first address the resolver returned. The first attempt starts right
+ * away and each following attempt starts when the previous one fails or
+ * after a short delay, whichever comes first. The first socket to connect
+ * is kept and all other attempts are closed, so a broken IPv6 route costs
+ * the attempt delay rather than a full connect timeout. Aborting the
+ * request closes all attempts and ends the race.
+ */
+public class HappyEyeballsSocketFactory extends ResolvingSocketFactory {
+    private static final long DEFAULT_ATTEMPT_DELAY_MILLIS = 250;
+
+    private static final ExecutorService connectPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HappyEyeballsSocketFactory connect");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final long attemptDelayMillis;
+
+    public HappyEyeballsSocketFactory(SocketFactory delegate, HostResolver resolver) {
+        this(delegate, resolver, DEFAULT_ATTEMPT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param attemptDelayMillis how long to wait for an attempt before starting the next one.
+     */
+    public HappyEyeballsSocketFactory(SocketFactory delegate, HostResolver resolver, long attemptDelayMillis) {
+        super(delegate, resolver);
+        this.attemptDelayMillis = attemptDelayMillis;
+    }
+
+    @Override
+    public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params)
+            throws IOException, UnknownHostException, ConnectTimeoutException {
+        if(host == null) {
+            throw new IllegalArgumentException("Target host may not be null");
+        }
+        if(params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+
+        InetAddress[] resolved = resolve(host, params);
+        if(resolved.length <= 1) {
+            // Nothing to race
+            return connectSocket(sock, host, resolved, port, localAddress, localPort, params);
+        }
+        List<InetAddress> addresses = interleave(resolved);
+
+        int connectTimeout = HttpConnectionParams.getConnectionTimeout(params);
+        long deadline = connectTimeout > 0 ? System.currentTimeMillis() + connectTimeout : Long.MAX_VALUE;
+
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+        List<Attempt> attempts = new ArrayList<Attempt>(addresses.size());
+        Attempt winner = null;
+        IOException lastException = null;
+        int pending = 0;
+        try {
+            // The first attempt uses the socket HttpClient aborts the request
+            // through, the others are linked to it
+            attempts.add(start(sock, sock != null ? sock : createSocket(), addresses.get(0), port, localAddress, localPort, params, completed));
+            pending++;
+            while(true) {
+                long now = System.currentTimeMillis();
+                if(now >= deadline) {
+                    break;
+                }
+                long wait = deadline - now;
+                if(attempts.size() < addresses.size()) {
+                    wait = Math.min(wait, attemptDelayMillis);
+                }
+
+                Attempt done = completed.poll(wait, TimeUnit.MILLISECONDS);
+                if(done == null) {
+                    if(attempts.size() < addresses.size()) {
+                        // Slow attempt, race the next address against it
+                        attempts.add(start(sock, createSocket(), addresses.get(attempts.size()), port, localAddress, localPort, params, completed));
+                        pending++;
+                    }
+                    continue;
+                }
+
+                pending--;
+                if(done.error == null) {
+                    winner = done;
+                    break;
+                }
+                lastException = done.error;
+                if(attempts.size() < addresses.size()) {
+                    // Failed fast, don't wait out the delay
+                    attempts.add(start(sock, createSocket(), addresses.get(attempts.size()), port, localAddress, localPort, params, completed));
+                    pending++;
+                } else if(pending == 0) {
+                    break;
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lastException = new IOException("Interrupted while connecting to " + host);
+        } finally {
+            // Closing a socket which is still connecting aborts the attempt
+            for(Attempt attempt : attempts) {
+                unlink(sock, attempt.socket);
+                if(attempt != winner) {
+                    closeUnlessOwn(sock, attempt.socket);
+                }
+            }
+        }
+
+        if(winner != null) {
+            handOver(sock, winner.socket, host);
+            return layer(winner.socket, host, port, params);
+        }
+        if(sock != null) {
+            boolean aborted = sock.isClosed();
+            // Stops the first attempt if it is still connecting
+            closeQuietly(sock);
+            if(aborted) {
+                throw new IOException("Connect to " + host + " aborted");
+            }
+        }
+        if(lastException == null || System.currentTimeMillis() >= deadline) {
+            throw new ConnectTimeoutException("Connect to " + host + " timed out");
+        }
+        throw lastException;
+    }
+
+    private Attempt start(Socket sock, Socket socket, final InetAddress address, final int port, final InetAddress localAddress, final int localPort,
+            final HttpParams params, final BlockingQueue<Attempt> completed) throws IOException {
+        // Fails without starting if the request was aborted meanwhile
+        link(sock, socket);
+        final Attempt attempt = new Attempt(socket);
+        connectPool.execute(new Runnable() {
+            public void run() {
+                try {
+                    connect(attempt.socket, new InetSocketAddress(address, port), localAddress, localPort, params);
+                } catch(SocketTimeoutException e) {
+                    attempt.error = new ConnectTimeoutException("Connect to " + address.getHostAddress() + " timed out");
+                } catch(IOException e) {
+                    attempt.error = e;
+                }
+                completed.add(attempt);
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * Orders addresses by alternating between IPv6 and IPv4, starting with
+     * the family of the first address (RFC 8305 section 4).
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        LinkedList<InetAddress> first = new LinkedList<InetAddress>();
+        LinkedList<InetAddress> second = new LinkedList<InetAddress>();
+        boolean firstIsV6 = addresses.length > 0 && addresses[0] instanceof Inet6Address;
+        for(InetAddress address : addresses) {
+            if((address instanceof Inet6Address) == firstIsV6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+
+        List<InetAddress> ordered = new ArrayList<InetAddress>(addresses.length);
+        while(!first.isEmpty() || !second.isEmpty()) {
+            if(!first.isEmpty()) {
+                ordered.add(first.removeFirst());
+            }
+            if(!second.isEmpty()) {
+                ordered.add(second.removeFirst());
+            }
+        }
+        return ordered;
+    }
+
+    private static class Attempt {
+        final Socket socket;
+        volatile IOException error;
+
+        Attempt(Socket socket) {
+            this.socket = socket;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides when a hedged GET sends its second copy, and how many of them
+ * may be sent.
+ * <p>
+ * A hedged request that has no response after the hedge delay is sent a
+ * second time, and whichever copy answers first wins. The delay is the
+ * observed latency percentile of the request's host, the 95th by default,
+ * or the fixed delay until enough responses have been seen. To keep hedges
+ * from piling load onto a server that is slow for everyone, each hedged
+ * request earns a fraction of a hedge and each hedge sent spends a whole
+ * one, so no more than that fraction of requests is ever hedged.
+ *
+ * @see AsyncHttpClient.Transaction#setHedged(boolean)
+ */
+public class HedgePolicy {
+    private static final long DEFAULT_DELAY_MILLIS = 500;
+    private static final double DEFAULT_PERCENTILE = 0.95;
+    private static final double DEFAULT_BUDGET = 0.1;
+    private static final int WINDOW_SIZE = 128;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_BALANCE = 10;
+
+    private volatile long delayMillis = DEFAULT_DELAY_MILLIS;
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    private volatile double budget = DEFAULT_BUDGET;
+    private final ConcurrentHashMap<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+    private double balance;
+
+    /**
+     * Sets the hedge delay used until enough responses have been seen for
+     * a host, or always if the percentile is 0. By default, 500 ms.
+     */
+    public HedgePolicy setDelay(long delayMillis) {
+        this.delayMillis = delayMillis;
+        return this;
+    }
+
+    /**
+     * Sets the latency percentile, between 0 and 1, used as the hedge
+     * delay. By default, 0.95. Set to 0 to always use the fixed delay.
+     */
+    public HedgePolicy setPercentile(double percentile) {
+        if(percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        this.percentile = percentile;
+        return this;
+    }
+
+    /**
+     * Sets the largest fraction of hedged requests which may send a second
+     * copy. By default, 0.1.
+     */
+    public HedgePolicy setBudget(double budget) {
+        if(budget < 0) {
+            throw new IllegalArgumentException("Budget may not be negative");
+        }
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * Returns how long a request to the given host waits for a response
+     * before it is hedged.
+     */
+    long getDelay(String route) {
+        if(percentile > 0) {
+            LatencyWindow window = latencies.get(route);
+            if(window != null) {
+                long delay = window.percentile(percentile);
+                if(delay >= 0) {
+                    return delay;
+                }
+            }
+        }
+        return delayMillis;
+    }
+
+    /**
+     * Records how long a request took from its start, or how long it had
+     * been running when the other copy won and aborted it.
+     */
+    void recordLatency(String route, long millis) {
+        LatencyWindow window = latencies.get(route);
+        if(window == null) {
+            LatencyWindow created = new LatencyWindow();
+            window = latencies.putIfAbsent(route, created);
+            if(window == null) {
+                window = created;
+            }
+        }
+        window.add(millis);
+    }
+
+    /**
+     * Earns the budget for a hedged request.
+     */
+    synchronized void deposit() {
+        balance = Math.min(MAX_BALANCE, balance + budget);
+    }
+
+    /**
+     * Spends the budget for a hedge, returns false if there isn't enough.
+     */
+    synchronized boolean tryAcquire() {
+        if(balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+
+    // The most recent latencies of a host
+    private static class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            if(count < samples.length) {
+                count++;
+            }
+        }
+
+        // Returns -1 until there are enough samples
+        synchronized long percentile(double p) {
+            if(count < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names to addresses for the socket factories of an
+ * {@link HttpEngine}.
+ *
+ * @see CachingHostResolver
+ * @see HttpEngine#setHostResolver(HostResolver)
+ */
+public interface HostResolver {
+    /**
+     * Resolves through the platform resolver, without any caching of its own.
+     */
+    public static final HostResolver SYSTEM = new HostResolver() {
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    };
+
+    /**
+     * Returns the addresses of a host, in the order they should be tried.
+     * @throws UnknownHostException if the host can't be resolved.
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException;
+}
@@ -0,0 +1,543 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * HPACK header compression for HTTP/2 (RFC 7541): the static and dynamic
+ * tables, the Huffman code and an encoder and decoder for header blocks.
+ * <p>
+ * Encoders and decoders keep state between header blocks, so each HTTP/2
+ * connection has exactly one of each, used under the connection's locks.
+ */
+final class Hpack {
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""},
+        {":method", "GET"},
+        {":method", "POST"},
+        {":path", "/"},
+        {":path", "/index.html"},
+        {":scheme", "http"},
+        {":scheme", "https"},
+        {":status", "200"},
+        {":status", "204"},
+        {":status", "206"},
+        {":status", "304"},
+        {":status", "400"},
+        {":status", "404"},
+        {":status", "500"},
+        {"accept-charset", ""},
+        {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""},
+        {"accept-ranges", ""},
+        {"accept", ""},
+        {"access-control-allow-origin", ""},
+        {"age", ""},
+        {"allow", ""},
+        {"authorization", ""},
+        {"cache-control", ""},
+        {"content-disposition", ""},
+        {"content-encoding", ""},
+        {"content-language", ""},
+        {"content-length", ""},
+        {"content-location", ""},
+        {"content-range", ""},
+        {"content-type", ""},
+        {"cookie", ""},
+        {"date", ""},
+        {"etag", ""},
+        {"expect", ""},
+        {"expires", ""},
+        {"from", ""},
+        {"host", ""},
+        {"if-match", ""},
+        {"if-modified-since", ""},
+        {"if-none-match", ""},
+        {"if-range", ""},
+        {"if-unmodified-since", ""},
+        {"last-modified", ""},
+        {"link", ""},
+        {"location", ""},
+        {"max-forwards", ""},
+        {"proxy-authenticate", ""},
+        {"proxy-authorization", ""},
+        {"range", ""},
+        {"referer", ""},
+        {"refresh", ""},
+        {"retry-after", ""},
+        {"server", ""},
+        {"set-cookie", ""},
+        {"strict-transport-security", ""},
+        {"transfer-encoding", ""},
+        {"user-agent", ""},
+        {"vary", ""},
+        {"via", ""},
+        {"www-authenticate", ""}
+    };
+
+    // Static table lookups by name, and by name and value, giving 1-based indexes
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+    private static final Map<String, Integer> STATIC_ENTRIES = new HashMap<String, Integer>();
+
+    // Code lengths of the Huffman code in RFC 7541 Appendix B, for symbols
+    // 0 to 255 and EOS. The code is canonical, so the codes themselves
+    // follow from the lengths.
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+    private static final int HUFFMAN_EOS = 256;
+    private static final int[] HUFFMAN_CODES = new int[HUFFMAN_LENGTHS.length];
+
+    // Decoding trie: node n has children at 2n (bit 0) and 2n + 1 (bit 1).
+    // Positive values are internal nodes, negative values are -(symbol + 1).
+    private static final int[] HUFFMAN_TREE = new int[2 * HUFFMAN_LENGTHS.length];
+
+    static {
+        for(int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_ENTRIES.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+
+        // Canonical codes: ordered by length, then by symbol
+        int code = 0;
+        int previousLength = 0;
+        for(int length = 1; length <= 30; length++) {
+            for(int symbol = 0; symbol < HUFFMAN_LENGTHS.length; symbol++) {
+                if(HUFFMAN_LENGTHS[symbol] != length) {
+                    continue;
+                }
+                if(previousLength != 0) {
+                    code = (code + 1) << (length - previousLength);
+                }
+                HUFFMAN_CODES[symbol] = code;
+                previousLength = length;
+            }
+        }
+
+        int nodes = 1;
+        for(int symbol = 0; symbol < HUFFMAN_LENGTHS.length; symbol++) {
+            int node = 0;
+            for(int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int slot = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if(HUFFMAN_TREE[slot] == 0) {
+                    HUFFMAN_TREE[slot] = nodes++;
+                }
+                node = HUFFMAN_TREE[slot];
+            }
+            HUFFMAN_TREE[2 * node + (HUFFMAN_CODES[symbol] & 1)] = -(symbol + 1);
+        }
+    }
+
+    private Hpack() {}
+
+
+    //
+    // Encoding
+    //
+
+    /**
+     * Encodes header blocks for one connection. Header names must already
+     * be lower case.
+     */
+    static class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private int pendingTableSize = -1;
+
+        /**
+         * Applies the peer's SETTINGS_HEADER_TABLE_SIZE. The table never
+         * grows past the default size, which is plenty for request headers.
+         */
+        void setMaxTableSize(int maxSize) {
+            int size = Math.min(maxSize, DEFAULT_TABLE_SIZE);
+            if(size != table.maxSize) {
+                table.setMaxSize(size);
+                // The smallest size must be signalled, see RFC 7541 section 4.2
+                pendingTableSize = pendingTableSize < 0 ? size : Math.min(pendingTableSize, size);
+            }
+        }
+
+        byte[] encode(List<Header> headers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if(pendingTableSize >= 0) {
+                if(pendingTableSize != table.maxSize) {
+                    writeInt(out, 0x20, 5, pendingTableSize);
+                }
+                writeInt(out, 0x20, 5, table.maxSize);
+                pendingTableSize = -1;
+            }
+
+            for(Header header : headers) {
+                String name = header.getName();
+                String value = header.getValue() != null ? header.getValue() : "";
+
+                Integer staticEntry = STATIC_ENTRIES.get(name + '\0' + value);
+                if(staticEntry != null) {
+                    writeInt(out, 0x80, 7, staticEntry);
+                    continue;
+                }
+                int dynamicEntry = table.indexOf(name, value);
+                if(dynamicEntry >= 0) {
+                    writeInt(out, 0x80, 7, STATIC_TABLE.length + 1 + dynamicEntry);
+                    continue;
+                }
+
+                int nameIndex = 0;
+                Integer staticName = STATIC_NAMES.get(name);
+                if(staticName != null) {
+                    nameIndex = staticName;
+                } else {
+                    int dynamicName = table.indexOfName(name);
+                    if(dynamicName >= 0) {
+                        nameIndex = STATIC_TABLE.length + 1 + dynamicName;
+                    }
+                }
+
+                if(isSensitive(name)) {
+                    // Never indexed, by us or by any intermediary
+                    writeInt(out, 0x10, 4, nameIndex);
+                } else if(isVolatile(name)) {
+                    writeInt(out, 0x00, 4, nameIndex);
+                } else {
+                    writeInt(out, 0x40, 6, nameIndex);
+                    table.add(name, value);
+                }
+                if(nameIndex == 0) {
+                    writeString(out, name);
+                }
+                writeString(out, value);
+            }
+            return out.toByteArray();
+        }
+
+        private static boolean isSensitive(String name) {
+            return name.equals("authorization") || name.equals("proxy-authorization");
+        }
+
+        // Values which change with every request would only flush the table
+        private static boolean isVolatile(String name) {
+            return name.equals(":path") || name.equals("content-length");
+        }
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int pattern, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if(value < max) {
+            out.write(pattern | value);
+            return;
+        }
+        out.write(pattern | max);
+        value -= max;
+        while(value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String string) {
+        byte[] bytes = string.getBytes(LATIN1);
+        long huffmanBits = 0;
+        for(byte b : bytes) {
+            huffmanBits += HUFFMAN_LENGTHS[b & 0xff];
+        }
+        int huffmanLength = (int) ((huffmanBits + 7) / 8);
+        if(huffmanLength >= bytes.length) {
+            writeInt(out, 0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return;
+        }
+
+        writeInt(out, 0x80, 7, huffmanLength);
+        long buffer = 0;
+        int bits = 0;
+        for(byte b : bytes) {
+            int symbol = b & 0xff;
+            buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            bits += HUFFMAN_LENGTHS[symbol];
+            while(bits >= 8) {
+                bits -= 8;
+                out.write((int) (buffer >>> bits));
+            }
+        }
+        if(bits > 0) {
+            // Pad with the most significant bits of EOS, which are all ones
+            out.write((int) ((buffer << (8 - bits)) | (0xff >>> bits)));
+        }
+    }
+
+
+    //
+    // Decoding
+    //
+
+    /**
+     * Decodes header blocks for one connection.
+     */
+    static class Decoder {
+        private final DynamicTable table;
+        private final int maxTableSize;
+        private final int maxHeaderListSize;
+
+        private byte[] block;
+        private int pos;
+
+        /**
+         * @param maxTableSize the SETTINGS_HEADER_TABLE_SIZE sent to the peer.
+         * @param maxHeaderListSize the largest header list accepted, counted as in SETTINGS_MAX_HEADER_LIST_SIZE.
+         */
+        Decoder(int maxTableSize, int maxHeaderListSize) {
+            this.table = new DynamicTable(maxTableSize);
+            this.maxTableSize = maxTableSize;
+            this.maxHeaderListSize = maxHeaderListSize;
+        }
+
+        List<Header> decode(byte[] block) throws IOException {
+            this.block = block;
+            this.pos = 0;
+            List<Header> headers = new ArrayList<Header>();
+            int listSize = 0;
+            try {
+                while(pos < block.length) {
+                    int b = block[pos] & 0xff;
+                    String name;
+                    String value;
+                    if((b & 0x80) != 0) {
+                        int index = readInt(7);
+                        name = nameAt(index);
+                        value = valueAt(index);
+                    } else if((b & 0x40) != 0) {
+                        int index = readInt(6);
+                        name = index == 0 ? readString() : nameAt(index);
+                        value = readString();
+                        table.add(name, value);
+                    } else if((b & 0x20) != 0) {
+                        if(!headers.isEmpty()) {
+                            throw new IOException("HPACK: table size update after a header");
+                        }
+                        int size = readInt(5);
+                        if(size > maxTableSize) {
+                            throw new IOException("HPACK: table size " + size + " over limit " + maxTableSize);
+                        }
+                        table.setMaxSize(size);
+                        continue;
+                    } else {
+                        // Literal without indexing or never indexed
+                        int index = readInt(4);
+                        name = index == 0 ? readString() : nameAt(index);
+                        value = readString();
+                    }
+
+                    listSize += name.length() + value.length() + ENTRY_OVERHEAD;
+                    if(listSize > maxHeaderListSize) {
+                        throw new IOException("HPACK: header list too large");
+                    }
+                    headers.add(new BasicHeader(name, value));
+                }
+            } finally {
+                this.block = null;
+            }
+            return headers;
+        }
+
+        private String nameAt(int index) throws IOException {
+            if(index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][0];
+            }
+            return table.get(index - STATIC_TABLE.length - 1)[0];
+        }
+
+        private String valueAt(int index) throws IOException {
+            if(index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][1];
+            }
+            return table.get(index - STATIC_TABLE.length - 1)[1];
+        }
+
+        private int readInt(int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = block[pos++] & max;
+            if(value < max) {
+                return value;
+            }
+            int shift = 0;
+            while(true) {
+                if(pos >= block.length) {
+                    throw new IOException("HPACK: truncated integer");
+                }
+                int b = block[pos++] & 0xff;
+                if(shift > 21) {
+                    throw new IOException("HPACK: integer overflow");
+                }
+                value += (b & 0x7f) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        private String readString() throws IOException {
+            if(pos >= block.length) {
+                throw new IOException("HPACK: truncated string");
+            }
+            boolean huffman = (block[pos] & 0x80) != 0;
+            int length = readInt(7);
+            if(length < 0 || length > block.length - pos) {
+                throw new IOException("HPACK: truncated string");
+            }
+            String string = huffman ? huffmanDecode(block, pos, length) : new String(block, pos, length, LATIN1);
+            pos += length;
+            return string;
+        }
+    }
+
+    static String huffmanDecode(byte[] data, int offset, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 8 / 5);
+        int node = 0;
+        int bitsSinceSymbol = 0;
+        boolean allOnes = true;
+        for(int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xff;
+            for(int shift = 7; shift >= 0; shift--) {
+                int bit = (b >>> shift) & 1;
+                int child = HUFFMAN_TREE[2 * node + bit];
+                if(child < 0) {
+                    int symbol = -child - 1;
+                    if(symbol == HUFFMAN_EOS) {
+                        throw new IOException("HPACK: EOS in Huffman string");
+                    }
+                    out.write(symbol);
+                    node = 0;
+                    bitsSinceSymbol = 0;
+                    allOnes = true;
+                } else {
+                    node = child;
+                    bitsSinceSymbol++;
+                    allOnes &= bit == 1;
+                }
+            }
+        }
+        if(bitsSinceSymbol > 7 || !allOnes) {
+            throw new IOException("HPACK: invalid Huffman padding");
+        }
+        return new String(out.toByteArray(), LATIN1);
+    }
+
+
+    //
+    // Dynamic table
+    //
+
+    // Entries are kept oldest first, index 0 is the newest entry
+    private static class DynamicTable {
+        private final List<String[]> entries = new ArrayList<String[]>();
+        private int size;
+        int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        String[] get(int index) throws IOException {
+            if(index < 0 || index >= entries.size()) {
+                throw new IOException("HPACK: invalid index " + (index + STATIC_TABLE.length + 1));
+            }
+            return entries.get(entries.size() - 1 - index);
+        }
+
+        int indexOf(String name, String value) {
+            for(int i = entries.size() - 1; i >= 0; i--) {
+                String[] entry = entries.get(i);
+                if(entry[0].equals(name) && entry[1].equals(value)) {
+                    return entries.size() - 1 - i;
+                }
+            }
+            return -1;
+        }
+
+        int indexOfName(String name) {
+            for(int i = entries.size() - 1; i >= 0; i--) {
+                if(entries.get(i)[0].equals(name)) {
+                    return entries.size() - 1 - i;
+                }
+            }
+            return -1;
+        }
+
+        void add(String name, String value) {
+            int entrySize = entrySize(name, value);
+            if(entrySize > maxSize) {
+                // An entry larger than the table empties it, see RFC 7541 section 4.4
+                entries.clear();
+                size = 0;
+                return;
+            }
+            evict(maxSize - entrySize);
+            entries.add(new String[] {name, value});
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int targetSize) {
+            while(size > targetSize && !entries.isEmpty()) {
+                String[] oldest = entries.remove(0);
+                size -= entrySize(oldest[0], oldest[1]);
+            }
+        }
+
+        private static int entrySize(String name, String value) {
+            return name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+}
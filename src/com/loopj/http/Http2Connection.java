@@ -0,0 +1,688 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+/**
+ * A single HTTP/2 connection (RFC 7540) carrying any number of concurrent
+ * request streams.
+ * <p>
+ * Frames are read by a dedicated thread, which hands response headers and
+ * data to the {@link Http2Stream} they belong to. Writes come from the
+ * threads running the requests and are serialized by a write lock, which
+ * also covers stream id assignment and header compression, since both
+ * must happen in the order the frames go out.
+ * <p>
+ * Server push is turned off. Flow control is honoured in both directions:
+ * request bodies wait for window updates from the server, and windows for
+ * response data are reopened once half of them has been consumed.
+ */
+final class Http2Connection {
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_PRIORITY = 0x2;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    // What we tell the server
+    static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+    private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final String authority;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Thread reader;
+
+    // Guarded by writeLock
+    private final Object writeLock = new Object();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+    // Only used by the reader thread
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    private int unacknowledgedBytes;
+
+    // Guarded by this
+    private final Map<Integer, Http2Stream> streams = new HashMap<Integer, Http2Stream>();
+    private int reservedStreams;
+    private int nextStreamId = 1; // only assigned while holding writeLock as well
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+    private int initialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private long sendWindow = DEFAULT_WINDOW_SIZE;
+    private int lastGoodStreamId = Integer.MAX_VALUE;
+    private boolean shutdown;
+    private IOException failure;
+    private long idleSince = System.currentTimeMillis();
+
+    /**
+     * Starts HTTP/2 on a connected socket, TLS already negotiated if any,
+     * by sending the connection preface and our settings.
+     * @param authority the host and port the socket is connected to.
+     */
+    Http2Connection(Socket socket, String authority) throws IOException {
+        this.socket = socket;
+        this.authority = authority;
+        this.in = new BufferedInputStream(socket.getInputStream(), DEFAULT_MAX_FRAME_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE);
+        // Streams time out on their own, the reader waits for as long as the connection lives
+        socket.setSoTimeout(0);
+
+        synchronized(writeLock) {
+            out.write(PREFACE);
+            byte[] settings = new byte[12];
+            putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+            putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            writeFrame(TYPE_SETTINGS, 0, 0, settings, 0, settings.length);
+            writeFrame(TYPE_WINDOW_UPDATE, 0, 0, int32(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE), 0, 4);
+            out.flush();
+        }
+
+        reader = new Thread(new Runnable() {
+            public void run() {
+                readFrames();
+            }
+        }, "AsyncHttpClient HTTP/2 " + authority);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * Returns true if new streams can be opened on this connection.
+     */
+    synchronized boolean isUsable() {
+        // Stream ids run out after about a billion streams
+        return !shutdown && !socket.isClosed() && nextStreamId > 0;
+    }
+
+    /**
+     * Returns true if streams are open on this connection.
+     */
+    synchronized boolean hasStreams() {
+        return !streams.isEmpty();
+    }
+
+    /**
+     * Returns how long the connection has been without streams, or 0 if
+     * streams are open.
+     */
+    synchronized long getIdleMillis(long now) {
+        return streams.isEmpty() ? now - idleSince : 0;
+    }
+
+    /**
+     * Opens a stream and sends the request headers.
+     * @param headers the request headers, pseudo-headers first, names in lower case.
+     * @param endStream true if the request has no body.
+     * @param timeoutMillis how long to wait for the server's stream limit, 0 to wait forever.
+     */
+    Http2Stream newStream(List<Header> headers, boolean endStream, long timeoutMillis) throws IOException {
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        synchronized(this) {
+            while(!shutdown && streams.size() + reservedStreams >= maxConcurrentStreams) {
+                long wait = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+                if(deadline > 0 && wait <= 0) {
+                    throw new ConnectionPoolTimeoutException("Timeout waiting for a stream on " + authority);
+                }
+                try {
+                    wait(wait);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a stream on " + authority);
+                }
+            }
+            if(shutdown) {
+                // Never sent, so it's safe to retry on a new connection
+                throw new NoHttpResponseException("HTTP/2 connection to " + authority + " is shutting down");
+            }
+            // Holds the slot until the stream gets its id under the write lock
+            reservedStreams++;
+        }
+
+        Http2Stream stream;
+        synchronized(writeLock) {
+            synchronized(this) {
+                reservedStreams--;
+                if(shutdown || nextStreamId < 0) {
+                    shutdown = true;
+                    notifyAll();
+                    throw new NoHttpResponseException("HTTP/2 connection to " + authority + " is shutting down");
+                }
+                stream = new Http2Stream(this, nextStreamId, initialWindowSize);
+                streams.put(nextStreamId, stream);
+                nextStreamId += 2;
+            }
+            try {
+                writeHeaders(stream.getId(), encoder.encode(headers), endStream);
+                out.flush();
+            } catch(IOException e) {
+                close(e);
+                throw e;
+            }
+        }
+        return stream;
+    }
+
+    // Header blocks larger than a frame continue in CONTINUATION frames,
+    // which must follow without any other frame in between
+    private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+        int frameSize = getMaxFrameSize();
+        int length = Math.min(block.length, frameSize);
+        int flags = (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+        writeFrame(TYPE_HEADERS, flags, streamId, block, 0, length);
+        for(int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, frameSize);
+            flags = offset + length == block.length ? FLAG_END_HEADERS : 0;
+            writeFrame(TYPE_CONTINUATION, flags, streamId, block, offset, length);
+        }
+    }
+
+    /**
+     * Sends request body data, waiting for the flow control windows to
+     * allow it.
+     */
+    void writeData(Http2Stream stream, byte[] data, int offset, int length, boolean endStream) throws IOException {
+        do {
+            int chunk;
+            synchronized(this) {
+                while(true) {
+                    if(failure != null) {
+                        throw failure;
+                    }
+                    stream.checkWritable();
+                    chunk = (int) Math.min(Math.min(length, maxFrameSize), Math.min(sendWindow, stream.sendWindow));
+                    if(chunk > 0 || length == 0) {
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for the HTTP/2 send window");
+                    }
+                }
+                sendWindow -= chunk;
+                stream.sendWindow -= chunk;
+            }
+
+            synchronized(writeLock) {
+                try {
+                    writeFrame(TYPE_DATA, endStream && chunk == length ? FLAG_END_STREAM : 0, stream.getId(), data, offset, chunk);
+                    out.flush();
+                } catch(IOException e) {
+                    close(e);
+                    throw e;
+                }
+            }
+            offset += chunk;
+            length -= chunk;
+        } while(length > 0);
+    }
+
+    void writeWindowUpdate(int streamId, int increment) {
+        writeControlFrame(TYPE_WINDOW_UPDATE, 0, streamId, int32(increment));
+    }
+
+    void writeReset(int streamId, int errorCode) {
+        writeControlFrame(TYPE_RST_STREAM, 0, streamId, int32(errorCode));
+    }
+
+    // Control frames are best effort, a failed write fails the whole connection
+    private void writeControlFrame(int type, int flags, int streamId, byte[] payload) {
+        synchronized(writeLock) {
+            try {
+                writeFrame(type, flags, streamId, payload, 0, payload.length);
+                out.flush();
+            } catch(IOException e) {
+                close(e);
+            }
+        }
+    }
+
+    // Must hold writeLock
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(type);
+        out.write(flags);
+        out.write(int32(streamId & 0x7fffffff));
+        out.write(payload, offset, length);
+    }
+
+    synchronized int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    synchronized void removeStream(Http2Stream stream) {
+        if(streams.remove(stream.getId()) != null) {
+            if(streams.isEmpty()) {
+                idleSince = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+    }
+
+
+    //
+    // Reading
+    //
+
+    private void readFrames() {
+        byte[] header = new byte[9];
+        try {
+            while(true) {
+                readFully(header, 9);
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = int32(header, 5) & 0x7fffffff;
+                if(length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                checkFrameSize(type, flags, length);
+                byte[] payload = new byte[length];
+                readFully(payload, length);
+
+                switch(type) {
+                case TYPE_DATA:
+                    readData(streamId, flags, payload);
+                    break;
+                case TYPE_HEADERS:
+                    readHeaders(streamId, flags, payload);
+                    break;
+                case TYPE_RST_STREAM:
+                    Http2Stream reset = getStream(streamId);
+                    if(reset != null) {
+                        reset.receiveReset(int32(payload, 0));
+                    }
+                    break;
+                case TYPE_SETTINGS:
+                    if((flags & FLAG_ACK) == 0) {
+                        readSettings(payload);
+                        writeControlFrame(TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+                    }
+                    break;
+                case TYPE_PUSH_PROMISE:
+                    throw new Http2Exception(PROTOCOL_ERROR, "PUSH_PROMISE with push disabled");
+                case TYPE_PING:
+                    if((flags & FLAG_ACK) == 0) {
+                        writeControlFrame(TYPE_PING, FLAG_ACK, 0, payload);
+                    }
+                    break;
+                case TYPE_GOAWAY:
+                    readGoAway(int32(payload, 0) & 0x7fffffff, int32(payload, 4));
+                    break;
+                case TYPE_WINDOW_UPDATE:
+                    readWindowUpdate(streamId, int32(payload, 0) & 0x7fffffff);
+                    break;
+                case TYPE_CONTINUATION:
+                    throw new Http2Exception(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                default:
+                    // PRIORITY and unknown frame types are ignored
+                    break;
+                }
+            }
+        } catch(Http2Exception e) {
+            synchronized(writeLock) {
+                try {
+                    // We never accept streams from the server, so the last stream id is 0
+                    byte[] payload = new byte[8];
+                    System.arraycopy(int32(e.errorCode), 0, payload, 4, 4);
+                    writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+                    out.flush();
+                } catch(IOException ignored) {}
+            }
+            close(e);
+        } catch(IOException e) {
+            close(e);
+        } catch(RuntimeException e) {
+            // Don't leave a connection nobody reads from in the pool
+            close(new IOException("HTTP/2 reader failed: " + e, e));
+        }
+    }
+
+    // Frames with fixed layouts must be exactly that long, and padded
+    // frames must at least hold the pad length
+    private static void checkFrameSize(int type, int flags, int length) throws Http2Exception {
+        boolean valid;
+        switch(type) {
+        case TYPE_DATA:
+        case TYPE_HEADERS:
+            valid = (flags & FLAG_PADDED) == 0 || length >= 1;
+            break;
+        case TYPE_PRIORITY:
+            valid = length == 5;
+            break;
+        case TYPE_RST_STREAM:
+        case TYPE_WINDOW_UPDATE:
+            valid = length == 4;
+            break;
+        case TYPE_SETTINGS:
+            valid = (flags & FLAG_ACK) != 0 ? length == 0 : length % 6 == 0;
+            break;
+        case TYPE_PING:
+            valid = length == 8;
+            break;
+        case TYPE_GOAWAY:
+            valid = length >= 8;
+            break;
+        default:
+            valid = true;
+            break;
+        }
+        if(!valid) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of type " + type + " with " + length + " bytes");
+        }
+    }
+
+    private void readData(int streamId, int flags, byte[] payload) throws IOException {
+        // Padding counts against flow control as well
+        unacknowledgedBytes += payload.length;
+        if(unacknowledgedBytes >= CONNECTION_WINDOW_SIZE / 2) {
+            writeWindowUpdate(0, unacknowledgedBytes);
+            unacknowledgedBytes = 0;
+        }
+
+        int offset = 0;
+        int length = payload.length;
+        if((flags & FLAG_PADDED) != 0) {
+            int padding = payload[0] & 0xff;
+            offset = 1;
+            length -= 1 + padding;
+            if(length < 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Padding exceeds DATA frame");
+            }
+        }
+
+        Http2Stream stream = getStream(streamId);
+        if(stream != null) {
+            stream.receiveData(payload, offset, length, payload.length, (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void readHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        int offset = 0;
+        int length = payload.length;
+        if((flags & FLAG_PADDED) != 0) {
+            int padding = payload[0] & 0xff;
+            offset = 1;
+            length -= 1 + padding;
+        }
+        if((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+            length -= 5;
+        }
+        if(length < 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid HEADERS frame");
+        }
+
+        byte[] block = new byte[length];
+        System.arraycopy(payload, offset, block, 0, length);
+        int headerFlags = flags;
+        byte[] header = new byte[9];
+        while((flags & FLAG_END_HEADERS) == 0) {
+            readFully(header, 9);
+            int frameLength = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+            if((header[3] & 0xff) != TYPE_CONTINUATION || (int32(header, 5) & 0x7fffffff) != streamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Expected CONTINUATION");
+            }
+            if(frameLength > DEFAULT_MAX_FRAME_SIZE || block.length + frameLength > MAX_HEADER_LIST_SIZE) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, "Header block too large");
+            }
+            flags = header[4] & 0xff;
+            byte[] grown = new byte[block.length + frameLength];
+            System.arraycopy(block, 0, grown, 0, block.length);
+            readFully(grown, block.length, frameLength);
+            block = grown;
+        }
+
+        // Always decoded, even for cancelled streams, to keep the tables in step
+        List<Header> headers;
+        try {
+            headers = decoder.decode(block);
+        } catch(IOException e) {
+            throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+        }
+        Http2Stream stream = getStream(streamId);
+        if(stream != null) {
+            stream.receiveHeaders(headers, (headerFlags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void readSettings(byte[] payload) throws IOException {
+        if(payload.length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS frame");
+        }
+        for(int i = 0; i < payload.length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            int value = int32(payload, i + 2);
+            switch(id) {
+            case SETTINGS_HEADER_TABLE_SIZE:
+                synchronized(writeLock) {
+                    encoder.setMaxTableSize(value);
+                }
+                break;
+            case SETTINGS_MAX_CONCURRENT_STREAMS:
+                synchronized(this) {
+                    maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                    notifyAll();
+                }
+                break;
+            case SETTINGS_INITIAL_WINDOW_SIZE:
+                if(value < 0) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Initial window size " + value);
+                }
+                synchronized(this) {
+                    // Applies to the windows of open streams as well
+                    int delta = value - initialWindowSize;
+                    initialWindowSize = value;
+                    for(Http2Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                    }
+                    notifyAll();
+                }
+                break;
+            case SETTINGS_MAX_FRAME_SIZE:
+                if(value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Max frame size " + value);
+                }
+                synchronized(this) {
+                    maxFrameSize = value;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private void readGoAway(int lastStreamId, int errorCode) {
+        List<Http2Stream> refused = new ArrayList<Http2Stream>();
+        synchronized(this) {
+            shutdown = true;
+            lastGoodStreamId = Math.min(lastGoodStreamId, lastStreamId);
+            for(Http2Stream stream : streams.values()) {
+                if(stream.getId() > lastGoodStreamId) {
+                    refused.add(stream);
+                }
+            }
+            notifyAll();
+        }
+        // The server never saw these, so they can be retried elsewhere
+        for(Http2Stream stream : refused) {
+            stream.fail(new NoHttpResponseException("Stream refused by GOAWAY from " + authority + ", error " + errorCode));
+        }
+    }
+
+    private void readWindowUpdate(int streamId, int increment) throws IOException {
+        if(increment == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Window update of 0");
+        }
+        synchronized(this) {
+            if(streamId == 0) {
+                if(sendWindow + increment > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                sendWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if(stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized Http2Stream getStream(int streamId) {
+        return streams.get(streamId);
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        readFully(buffer, 0, length);
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while(length > 0) {
+            int read = in.read(buffer, offset, length);
+            if(read < 0) {
+                throw new EOFException("HTTP/2 connection to " + authority + " closed");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+
+    //
+    // Shutdown
+    //
+
+    /**
+     * Sends GOAWAY and closes the connection. Open streams fail.
+     */
+    void shutdown() {
+        synchronized(writeLock) {
+            try {
+                byte[] payload = new byte[8];
+                writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+                out.flush();
+            } catch(IOException ignored) {}
+        }
+        close(new NoHttpResponseException("HTTP/2 connection to " + authority + " was shut down"));
+    }
+
+    private void close(IOException cause) {
+        List<Http2Stream> open;
+        synchronized(this) {
+            if(failure != null) {
+                return;
+            }
+            failure = cause;
+            shutdown = true;
+            open = new ArrayList<Http2Stream>(streams.values());
+            streams.clear();
+            notifyAll();
+        }
+        ResolvingSocketFactory.closeQuietly(socket);
+        for(Http2Stream stream : open) {
+            stream.fail(cause);
+        }
+    }
+
+    private static void putSetting(byte[] buffer, int offset, int id, int value) {
+        buffer[offset] = (byte) (id >>> 8);
+        buffer[offset + 1] = (byte) id;
+        System.arraycopy(int32(value), 0, buffer, offset + 2, 4);
+    }
+
+    private static byte[] int32(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static int int32(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    // A connection error, reported to the server in GOAWAY
+    private static class Http2Exception extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int errorCode;
+
+        Http2Exception(int errorCode, String message) {
+            super("HTTP/2 protocol error: " + message);
+            this.errorCode = errorCode;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * One request and its response on an {@link Http2Connection}.
+ * <p>
+ * Response data is buffered as it arrives, up to the stream's flow control
+ * window, and read through {@link #getInputStream()}. Closing the input
+ * stream early, aborting the request or interrupting a blocked read
+ * cancels the stream with RST_STREAM, which leaves the connection and all
+ * other streams on it untouched.
+ */
+final class Http2Stream implements ConnectionReleaseTrigger {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Http2Connection connection;
+    private final int id;
+
+    // Guarded by the connection
+    long sendWindow;
+
+    // Guarded by this
+    private List<Header> headers;
+    private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+    private int chunkOffset;
+    private boolean endOfData;
+    private boolean closed; // nothing more will be sent or received, no RST_STREAM needed
+    private int unacknowledgedBytes;
+    private volatile IOException failure;
+    private int readTimeoutMillis;
+
+    Http2Stream(Http2Connection connection, int id, int sendWindow) {
+        this.connection = connection;
+        this.id = id;
+        this.sendWindow = sendWindow;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Sets how long to wait for response headers and data, 0 to wait forever.
+     */
+    synchronized void setReadTimeout(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Waits for the response headers, informational responses skipped.
+     */
+    List<Header> awaitHeaders() throws IOException {
+        synchronized(this) {
+            long deadline = readTimeoutMillis > 0 ? System.currentTimeMillis() + readTimeoutMillis : 0;
+            while(headers == null && failure == null && !endOfData) {
+                if(!await(deadline)) {
+                    break;
+                }
+            }
+            if(headers != null) {
+                return headers;
+            }
+            if(failure == null) {
+                failure = new NoHttpResponseException("HTTP/2 stream " + id + " ended without a response");
+            }
+        }
+        return failed();
+    }
+
+    InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Http2Stream.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized(Http2Stream.this) {
+                    return chunks.isEmpty() ? 0 : chunks.getFirst().length - chunkOffset;
+                }
+            }
+
+            @Override
+            public void close() {
+                cancel();
+            }
+        };
+    }
+
+    /**
+     * Returns a stream for the request body. Closing it ends the request.
+     */
+    OutputStream getOutputStream() {
+        return new OutputStream() {
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if(len > 0) {
+                    connection.writeData(Http2Stream.this, b, off, len, false);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(!closed) {
+                    closed = true;
+                    connection.writeData(Http2Stream.this, EMPTY, 0, 0, true);
+                }
+            }
+        };
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        int read = 0;
+        int windowUpdate = 0;
+        synchronized(this) {
+            long deadline = readTimeoutMillis > 0 ? System.currentTimeMillis() + readTimeoutMillis : 0;
+            while(chunks.isEmpty() && !endOfData && failure == null) {
+                if(!await(deadline)) {
+                    break;
+                }
+            }
+            if(!chunks.isEmpty()) {
+                byte[] chunk = chunks.getFirst();
+                read = Math.min(len, chunk.length - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, b, off, read);
+                chunkOffset += read;
+                if(chunkOffset == chunk.length) {
+                    chunks.removeFirst();
+                    chunkOffset = 0;
+                }
+
+                unacknowledgedBytes += read;
+                if(unacknowledgedBytes >= Http2Connection.STREAM_WINDOW_SIZE / 2 && !endOfData) {
+                    windowUpdate = unacknowledgedBytes;
+                    unacknowledgedBytes = 0;
+                }
+            } else if(failure == null && endOfData) {
+                return -1;
+            }
+        }
+
+        if(windowUpdate > 0) {
+            connection.writeWindowUpdate(id, windowUpdate);
+        }
+        if(read > 0) {
+            return read;
+        }
+        return failed();
+    }
+
+    // Waits for the next event, cancelling the stream on timeout or interrupt.
+    // Returns false if the wait failed and the failure has been set.
+    private boolean await(long deadline) {
+        try {
+            long wait = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+            if(deadline > 0 && wait <= 0) {
+                failure = new SocketTimeoutException("Read timed out on HTTP/2 stream " + id);
+            } else {
+                wait(wait);
+                return true;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException("Interrupted reading HTTP/2 stream " + id);
+        }
+        // Cancelled outside the lock, see failed()
+        return false;
+    }
+
+    // Cancels the stream, if still open, and throws the reason it failed
+    private <T> T failed() throws IOException {
+        IOException cause = failure;
+        cancel();
+        throw cause;
+    }
+
+    void checkWritable() throws IOException {
+        IOException cause = failure;
+        if(cause != null) {
+            throw cause;
+        }
+    }
+
+
+    //
+    // Called by the connection's reader thread
+    //
+
+    void receiveHeaders(List<Header> block, boolean endStream) {
+        synchronized(this) {
+            if(headers == null) {
+                String status = null;
+                for(Header header : block) {
+                    if(header.getName().equals(":status")) {
+                        status = header.getValue();
+                    }
+                }
+                if(status == null || !status.startsWith("1")) {
+                    headers = block;
+                }
+            }
+            // Trailers are dropped, HttpClient has no way to pass them on
+            if(endStream) {
+                endOfData = true;
+                closed = true;
+            }
+            notifyAll();
+        }
+        if(endStream) {
+            connection.removeStream(this);
+        }
+    }
+
+    void receiveData(byte[] data, int offset, int length, int flowControlled, boolean endStream) {
+        synchronized(this) {
+            if(failure != null) {
+                return;
+            }
+            if(length > 0) {
+                byte[] chunk = new byte[length];
+                System.arraycopy(data, offset, chunk, 0, length);
+                chunks.add(chunk);
+            }
+            // Padding is never read, so its share of the window is returned with the data
+            unacknowledgedBytes += flowControlled - length;
+            if(endStream) {
+                endOfData = true;
+                closed = true;
+            }
+            notifyAll();
+        }
+        if(endStream) {
+            connection.removeStream(this);
+        }
+    }
+
+    void receiveReset(int errorCode) {
+        if(errorCode == Http2Connection.REFUSED_STREAM) {
+            // The server didn't process the request, so it can be retried
+            fail(new NoHttpResponseException("HTTP/2 stream " + id + " refused"));
+        } else {
+            fail(new IOException("HTTP/2 stream " + id + " reset, error " + errorCode));
+        }
+    }
+
+    /**
+     * Fails the stream without telling the server, used when the stream or
+     * connection is already gone. Buffered data can still be read.
+     */
+    void fail(IOException cause) {
+        synchronized(this) {
+            if(failure == null && !endOfData) {
+                failure = cause;
+            }
+            closed = true;
+            notifyAll();
+        }
+        connection.removeStream(this);
+    }
+
+    /**
+     * Cancels the stream with RST_STREAM, unless the response has already
+     * been received in full.
+     */
+    void cancel() {
+        synchronized(this) {
+            chunks.clear();
+            if(failure == null && !endOfData) {
+                failure = new InterruptedIOException("HTTP/2 stream " + id + " cancelled");
+            }
+            endOfData = true;
+            notifyAll();
+            if(closed) {
+                return;
+            }
+            closed = true;
+        }
+        connection.writeReset(id, Http2Connection.CANCEL);
+        connection.removeStream(this);
+    }
+
+    public void releaseConnection() {
+        cancel();
+    }
+
+    public void abortConnection() {
+        cancel();
+    }
+}
@@ -0,0 +1,515 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.RedirectException;
+import org.apache.http.client.RedirectHandler;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestClientConnControl;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnRouteParams;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.ClientParamsStack;
+import org.apache.http.impl.client.EntityEnclosingRequestWrapper;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends requests over HTTP/2, multiplexing all requests to a host over a
+ * single {@link Http2Connection}.
+ * <p>
+ * HTTP/2 is negotiated through ALPN on https connections. Plain http
+ * connections only use HTTP/2 with prior knowledge (h2c), which is meant
+ * for talking to local test servers. Hosts which don't pick HTTP/2 are
+ * remembered, and their requests go through the regular HTTP/1.1 pool.
+ * <p>
+ * Requests run through the client's interceptors, so headers, cookies,
+ * gzip and the cache work as they do over HTTP/1.1, and redirects are
+ * followed with the client's {@link RedirectHandler}. Authentication
+ * challenges aren't answered over HTTP/2: credentials have to be sent up
+ * front, and a 401 is passed on to the response handler as is.
+ */
+final class Http2Transport {
+    static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private static final String[] APPLICATION_PROTOCOLS = {"h2", "http/1.1"};
+
+    // Hop-by-hop headers, which HTTP/2 forbids, and Host, sent as :authority
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "expect"));
+
+    private final SchemeRegistry schemeRegistry;
+    private final TlsSocketFactory tlsSocketFactory;
+    private final SocketFactory plainSocketFactory;
+    private volatile boolean priorKnowledge;
+
+    private final Map<String, FutureTask<Http2Connection>> connections = new HashMap<String, FutureTask<Http2Connection>>();
+    private final Set<String> http1Hosts = Collections.synchronizedSet(new HashSet<String>());
+
+    Http2Transport(SchemeRegistry schemeRegistry, TlsSocketFactory tlsSocketFactory, HostResolver resolver) {
+        this.schemeRegistry = schemeRegistry;
+        this.tlsSocketFactory = tlsSocketFactory;
+        this.plainSocketFactory = new HappyEyeballsSocketFactory(PlainSocketFactory.getSocketFactory(), resolver);
+    }
+
+    /**
+     * Sets whether plain http requests use HTTP/2 without negotiation.
+     */
+    void setPriorKnowledge(boolean priorKnowledge) {
+        this.priorKnowledge = priorKnowledge;
+    }
+
+    /**
+     * Sends a request over HTTP/2, following redirects.
+     * @return the response, or null if the request's host can't be reached over HTTP/2 and should go through HTTP/1.1 instead.
+     */
+    HttpResponse execute(AbstractHttpClient client, HttpUriRequest request, HttpContext context) throws IOException {
+        BasicHttpProcessor processor = createProcessor(client);
+        RedirectHandler redirectHandler = client.getRedirectHandler();
+        setDefault(context, ClientContext.AUTHSCHEME_REGISTRY, client.getAuthSchemes());
+        setDefault(context, ClientContext.COOKIESPEC_REGISTRY, client.getCookieSpecs());
+        setDefault(context, ClientContext.COOKIE_STORE, client.getCookieStore());
+        setDefault(context, ClientContext.CREDS_PROVIDER, client.getCredentialsProvider());
+
+        HttpUriRequest current = request;
+        int redirects = 0;
+        while(true) {
+            HttpParams params = new ClientParamsStack(null, client.getParams(), current.getParams(), null);
+            URI uri = current.getURI();
+            Http2Connection connection = null;
+            HttpHost target = null;
+            if(uri.getHost() != null) {
+                target = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+                connection = getConnection(target, params);
+            }
+            if(connection == null) {
+                // A redirect to a host without HTTP/2 carries on over HTTP/1.1
+                return current == request ? null : client.execute(current, context);
+            }
+
+            HttpResponse response = exchange(connection, processor, target, current, request, params, context);
+            if(!HttpClientParams.isRedirecting(params) || !redirectHandler.isRedirectRequested(response, context)) {
+                return response;
+            }
+
+            int maxRedirects = params.getIntParameter(ClientPNames.MAX_REDIRECTS, 100);
+            if(++redirects > maxRedirects) {
+                throw new ClientProtocolException(new RedirectException("Maximum redirects (" + maxRedirects + ") exceeded"));
+            }
+            URI location;
+            try {
+                location = redirectHandler.getLocationURI(response, context);
+            } catch(ProtocolException e) {
+                throw new ClientProtocolException(e);
+            }
+            HttpEntity entity = response.getEntity();
+            if(entity != null) {
+                entity.consumeContent();
+            }
+
+            HttpGet redirect = new HttpGet(location);
+            redirect.setHeaders(request.getAllHeaders());
+            current = redirect;
+        }
+    }
+
+    private HttpResponse exchange(Http2Connection connection, BasicHttpProcessor processor, HttpHost target,
+            HttpUriRequest request, HttpUriRequest original, HttpParams params, HttpContext context) throws IOException {
+        RequestWrapper wrapper;
+        try {
+            if(request instanceof HttpEntityEnclosingRequest) {
+                wrapper = new EntityEnclosingRequestWrapper((HttpEntityEnclosingRequest) request);
+            } else {
+                wrapper = new RequestWrapper(request);
+            }
+            wrapper.setParams(params);
+
+            context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, target);
+            context.setAttribute(ExecutionContext.HTTP_REQUEST, wrapper);
+            context.setAttribute(ExecutionContext.HTTP_REQ_SENT, Boolean.FALSE);
+            processor.process(wrapper, context);
+        } catch(HttpException e) {
+            throw new ClientProtocolException(e);
+        }
+
+        URI uri = wrapper.getURI();
+        String path = uri.getRawPath() != null && uri.getRawPath().length() > 0 ? uri.getRawPath() : "/";
+        if(uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        Header host = wrapper.getFirstHeader("Host");
+
+        List<Header> headers = new ArrayList<Header>();
+        headers.add(new BasicHeader(":method", wrapper.getMethod()));
+        headers.add(new BasicHeader(":scheme", target.getSchemeName().toLowerCase(Locale.US)));
+        headers.add(new BasicHeader(":authority", host != null ? host.getValue() : target.toHostString()));
+        headers.add(new BasicHeader(":path", path));
+        for(Header header : wrapper.getAllHeaders()) {
+            String name = header.getName().toLowerCase(Locale.US);
+            if(CONNECTION_HEADERS.contains(name) || (name.equals("te") && !header.getValue().equalsIgnoreCase("trailers"))) {
+                continue;
+            }
+            headers.add(new BasicHeader(name, header.getValue()));
+        }
+
+        HttpEntity entity = wrapper instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) wrapper).getEntity() : null;
+        Http2Stream stream = connection.newStream(headers, entity == null, ConnManagerParams.getTimeout(params));
+        stream.setReadTimeout(HttpConnectionParams.getSoTimeout(params));
+
+        HttpResponse response;
+        try {
+            if(original instanceof AbortableHttpRequest) {
+                // Aborting the request cancels the stream, not the connection
+                ((AbortableHttpRequest) original).setReleaseTrigger(stream);
+            }
+            if(entity != null) {
+                OutputStream body = new BufferedOutputStream(stream.getOutputStream(), connection.getMaxFrameSize());
+                entity.writeTo(body);
+                body.close();
+            }
+            context.setAttribute(ExecutionContext.HTTP_REQ_SENT, Boolean.TRUE);
+
+            response = createResponse(stream, stream.awaitHeaders());
+        } catch(IOException e) {
+            stream.cancel();
+            throw e;
+        }
+
+        response.setParams(params);
+        context.setAttribute(ExecutionContext.HTTP_RESPONSE, response);
+        try {
+            processor.process(response, context);
+        } catch(HttpException e) {
+            stream.cancel();
+            throw new ClientProtocolException(e);
+        }
+        return response;
+    }
+
+    private static HttpResponse createResponse(Http2Stream stream, List<Header> headers) throws IOException {
+        int status = -1;
+        for(Header header : headers) {
+            if(header.getName().equals(":status")) {
+                try {
+                    status = Integer.parseInt(header.getValue());
+                } catch(NumberFormatException e) {
+                    // reported below
+                }
+            }
+        }
+        if(status < 0) {
+            throw new ClientProtocolException("HTTP/2 response without a valid :status");
+        }
+
+        BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HTTP_2, status,
+                EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.US)));
+        for(Header header : headers) {
+            if(!header.getName().startsWith(":")) {
+                response.addHeader(header);
+            }
+        }
+
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(stream.getInputStream());
+        entity.setContentType(response.getFirstHeader("Content-Type"));
+        entity.setContentEncoding(response.getFirstHeader("Content-Encoding"));
+        Header contentLength = response.getFirstHeader("Content-Length");
+        long length = -1;
+        if(contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.getValue().trim());
+            } catch(NumberFormatException e) {
+                // unknown length
+            }
+        }
+        entity.setContentLength(length);
+        response.setEntity(entity);
+        return response;
+    }
+
+    // The client's interceptors, without those managing HTTP/1.1 connections
+    private static BasicHttpProcessor createProcessor(AbstractHttpClient client) {
+        BasicHttpProcessor processor = new BasicHttpProcessor();
+        for(int i = 0; i < client.getRequestInterceptorCount(); i++) {
+            HttpRequestInterceptor interceptor = client.getRequestInterceptor(i);
+            if(!(interceptor instanceof RequestClientConnControl)) {
+                processor.addInterceptor(interceptor);
+            }
+        }
+        for(int i = 0; i < client.getResponseInterceptorCount(); i++) {
+            processor.addInterceptor(client.getResponseInterceptor(i));
+        }
+        return processor;
+    }
+
+    private static void setDefault(HttpContext context, String name, Object value) {
+        if(context.getAttribute(name) == null) {
+            context.setAttribute(name, value);
+        }
+    }
+
+
+    //
+    // Connections
+    //
+
+    // Returns the host's connection, opening one if needed, or null if the
+    // host should be reached over HTTP/1.1
+    private Http2Connection getConnection(HttpHost target, HttpParams params) throws IOException {
+        final String scheme = target.getSchemeName().toLowerCase(Locale.US);
+        final boolean secure = scheme.equals("https");
+        if(!secure && !(priorKnowledge && scheme.equals("http"))) {
+            return null;
+        }
+        if(secure && !usesTlsSocketFactory()) {
+            // A custom SSLSocketFactory can't negotiate HTTP/2
+            return null;
+        }
+        if(ConnRouteParams.getDefaultProxy(params) != null) {
+            return null;
+        }
+
+        final String host = target.getHostName().toLowerCase(Locale.US);
+        final int port = target.getPort() > 0 ? target.getPort() : (secure ? 443 : 80);
+        final String key = scheme + "://" + host + ":" + port;
+        if(http1Hosts.contains(key)) {
+            return null;
+        }
+
+        final HttpParams connectParams = params;
+        FutureTask<Http2Connection> task;
+        boolean connect = false;
+        synchronized(connections) {
+            task = connections.get(key);
+            if(task != null && task.isDone() && !isUsable(task)) {
+                connections.remove(key);
+                task = null;
+            }
+            if(task == null) {
+                // Requests arriving while the connection is set up wait for it
+                task = new FutureTask<Http2Connection>(new Callable<Http2Connection>() {
+                    public Http2Connection call() throws IOException {
+                        return connect(host, port, secure, connectParams);
+                    }
+                });
+                connections.put(key, task);
+                connect = true;
+            }
+        }
+        if(connect) {
+            task.run();
+        }
+
+        try {
+            Http2Connection connection = task.get();
+            if(connection == null) {
+                http1Hosts.add(key);
+                remove(key, task);
+            }
+            return connection;
+        } catch(ExecutionException e) {
+            remove(key, task);
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted connecting to " + key);
+        }
+    }
+
+    private Http2Connection connect(String host, int port, boolean secure, HttpParams params) throws IOException {
+        Socket socket = plainSocketFactory.connectSocket(null, host, port, null, 0, params);
+        if(secure) {
+            AsyncHttpRequest call = EventListener.getCall(params);
+            if(call != null) {
+                call.getEventListener().secureConnectStart(call, host);
+            }
+            SSLSocket sslSocket = (SSLSocket) tlsSocketFactory.createSocket(socket, host, port, true, APPLICATION_PROTOCOLS);
+            if(call != null) {
+                call.getEventListener().secureConnectEnd(call, host);
+            }
+            if(!"h2".equals(TlsSocketFactory.getApplicationProtocol(sslSocket))) {
+                // The session stays cached, so the HTTP/1.1 connection resumes it
+                ResolvingSocketFactory.closeQuietly(sslSocket);
+                return null;
+            }
+            socket = sslSocket;
+        }
+        try {
+            return new Http2Connection(socket, host + ":" + port);
+        } catch(IOException e) {
+            ResolvingSocketFactory.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private boolean usesTlsSocketFactory() {
+        Scheme https = schemeRegistry.get("https");
+        SocketFactory factory = https != null ? https.getSocketFactory() : null;
+        return factory instanceof ResolvingSocketFactory && ((ResolvingSocketFactory) factory).getDelegate() == tlsSocketFactory;
+    }
+
+    private static boolean isUsable(FutureTask<Http2Connection> task) {
+        try {
+            Http2Connection connection = task.get();
+            return connection != null && connection.isUsable();
+        } catch(Exception e) {
+            return false;
+        }
+    }
+
+    private void remove(String key, FutureTask<Http2Connection> task) {
+        synchronized(connections) {
+            if(connections.get(key) == task) {
+                connections.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of open connections, both idle and carrying
+     * streams.
+     */
+    int getConnectionCount() {
+        return countConnections(false);
+    }
+
+    /**
+     * Returns the number of open connections carrying streams.
+     */
+    int getBusyConnectionCount() {
+        return countConnections(true);
+    }
+
+    private int countConnections(boolean busyOnly) {
+        int count = 0;
+        synchronized(connections) {
+            for(FutureTask<Http2Connection> task : connections.values()) {
+                if(!task.isDone()) {
+                    continue;
+                }
+                Http2Connection connection = getQuietly(task);
+                if(connection != null && (!busyOnly || connection.hasStreams())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes connections which have been without streams for longer than
+     * the idle timeout, or which can't take new streams.
+     */
+    void closeIdleConnections(long idleTimeoutMillis) {
+        long now = System.currentTimeMillis();
+        List<Http2Connection> idle = new ArrayList<Http2Connection>();
+        synchronized(connections) {
+            for(Iterator<FutureTask<Http2Connection>> it = connections.values().iterator(); it.hasNext();) {
+                FutureTask<Http2Connection> task = it.next();
+                if(!task.isDone()) {
+                    continue;
+                }
+                Http2Connection connection = getQuietly(task);
+                if(connection == null) {
+                    it.remove();
+                    continue;
+                }
+                boolean expired = connection.getIdleMillis(now) > idleTimeoutMillis;
+                if(expired || !connection.isUsable()) {
+                    // Connections draining after GOAWAY are left for the server to close
+                    it.remove();
+                    if(expired) {
+                        idle.add(connection);
+                    }
+                }
+            }
+        }
+        for(Http2Connection connection : idle) {
+            connection.shutdown();
+        }
+    }
+
+    /**
+     * Closes all connections.
+     */
+    void shutdown() {
+        closeIdleConnections(-1);
+    }
+
+    private static Http2Connection getQuietly(FutureTask<Http2Connection> task) {
+        try {
+            return task.get();
+        } catch(Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,628 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The heavyweight transport behind {@link AsyncHttpClient}: the connection
+ * pool, the socket factories and the threads requests run on.
+ * <p>
+ * An engine can be shared by any number of clients, each with their own
+ * headers, credentials, cookies and timeouts, so keep-alive connections
+ * and TLS sessions to the same host are reused across all of them.
+ * <p>
+ * For example:
+ * <p>
+ * <pre>
+ * HttpEngine engine = new HttpEngine();
+ * AsyncHttpClient api = new AsyncHttpClient(engine).addHeader("Authorization", token);
+ * AsyncHttpClient images = new AsyncHttpClient(engine).setTimeout(30 * 1000);
+ * </pre>
+ * <p>
+ * Idle connections are closed by a background reaper once they pass the
+ * engine's idle timeout or the server's <code>Keep-Alive: timeout</code>
+ * hint, whichever comes first. One reaper thread serves all engines and
+ * only holds them weakly, and the engine's other threads stop when idle,
+ * so an engine nobody uses any more is garbage collected along with its
+ * pool without calling {@link #shutdown()}. Since pooled connections are retired before
+ * the server drops them, HttpClient's stale connection check, which costs
+ * a blocking read before every request, is turned off.
+ * <p>
+ * Host names are looked up through a {@link HostResolver}, by default a
+ * {@link CachingHostResolver} in front of the platform resolver, and hosts
+ * with several addresses are connected to with a
+ * {@link HappyEyeballsSocketFactory}. TLS sessions are resumed across all
+ * connections through a shared {@link TlsSocketFactory}.
+ * <p>
+ * HTTP/2 can be turned on with {@link #setHttp2Enabled(boolean)}, after
+ * which requests to hosts negotiating it through ALPN are multiplexed over
+ * a single connection per host instead of going through the pool.
+ */
+public class HttpEngine {
+    private static final int DEFAULT_MAX_CONNECTIONS = 10;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 10 * 1000;
+    private static final int DEFAULT_SOCKET_BUFFER_SIZE = 8192;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long REAPER_INTERVAL_MILLIS = 5 * 1000;
+
+    private final SchemeRegistry schemeRegistry;
+    private final LeaseCountingConnManager connectionManager;
+    private final ConnPerRouteBean connPerRoute;
+    private ThreadPoolExecutor threadPool;
+    private final ExecutorService revalidationPool;
+    private final Revalidator revalidator;
+    private final ConnectionKeepAliveStrategy keepAliveStrategy = new KeepAliveStrategy(this);
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private final TlsSocketFactory tlsSocketFactory = new TlsSocketFactory();
+    private final DelegatingHostResolver hostResolver = new DelegatingHostResolver(new CachingHostResolver());
+    private final Http2Transport http2Transport;
+    private volatile boolean http2Enabled;
+    private final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter();
+    private volatile boolean adaptiveConcurrency;
+    private volatile CircuitBreaker circuitBreaker;
+    private final int maxConnectionsPerRoute;
+    private final int maxTotalConnections;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final AtomicLong evictedConnections = new AtomicLong();
+    private final HttpRequestInterceptor statsInterceptor = new HttpRequestInterceptor() {
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            HttpConnection conn = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+            context.setAttribute(ConcurrencyLimiter.REQUEST_SENT, System.nanoTime());
+            requests.incrementAndGet();
+            if(conn != null && conn.getMetrics().getRequestCount() > 0) {
+                reusedConnections.incrementAndGet();
+            }
+        }
+    };
+
+    /**
+     * Creates an engine allowing 10 connections in total.
+     */
+    public HttpEngine() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates an engine with the given connection limits.
+     * @param maxConnectionsPerRoute the maximum number of connections to a single host.
+     * @param maxTotalConnections the maximum number of connections across all hosts.
+     */
+    public HttpEngine(int maxConnectionsPerRoute, int maxTotalConnections) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.maxTotalConnections = maxTotalConnections;
+        BasicHttpParams poolParams = new BasicHttpParams();
+        connPerRoute = new ConnPerRouteBean(maxConnectionsPerRoute);
+        ConnManagerParams.setMaxConnectionsPerRoute(poolParams, connPerRoute);
+        ConnManagerParams.setMaxTotalConnections(poolParams, maxTotalConnections);
+
+        schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", new UnlayeredSocketFactory(new HappyEyeballsSocketFactory(PlainSocketFactory.getSocketFactory(), hostResolver)), 80));
+        schemeRegistry.register(new Scheme("https", new HappyEyeballsSocketFactory(tlsSocketFactory, hostResolver), 443));
+        connectionManager = new LeaseCountingConnManager(poolParams, schemeRegistry);
+        http2Transport = new Http2Transport(schemeRegistry, tlsSocketFactory, hostResolver);
+
+        threadPool = (ThreadPoolExecutor)Executors.newCachedThreadPool();
+        ThreadPoolExecutor revalidationThread = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                // Background refreshes should never compete with user requests
+                Thread thread = new Thread(r, "AsyncHttpClient revalidation");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        revalidationThread.allowCoreThreadTimeOut(true);
+        revalidationPool = revalidationThread;
+        revalidator = new Revalidator(revalidationPool);
+        // With adaptive concurrency on, a host may use every connection
+        concurrencyLimiter.setConnectionLimit(maxTotalConnections);
+
+        Reaper.INSTANCE.register(this);
+    }
+
+    /**
+     * Creates the default parameters for a client using this engine. Each
+     * client gets its own copy, so timeouts and the User-Agent can differ
+     * between clients.
+     */
+    HttpParams createClientParams(String userAgent) {
+        BasicHttpParams httpParams = new BasicHttpParams();
+
+        ConnManagerParams.setTimeout(httpParams, DEFAULT_SOCKET_TIMEOUT);
+
+        HttpConnectionParams.setSoTimeout(httpParams, DEFAULT_SOCKET_TIMEOUT);
+        HttpConnectionParams.setConnectionTimeout(httpParams, DEFAULT_SOCKET_TIMEOUT);
+        HttpConnectionParams.setTcpNoDelay(httpParams, true);
+        HttpConnectionParams.setStaleCheckingEnabled(httpParams, false);
+        HttpConnectionParams.setSocketBufferSize(httpParams, DEFAULT_SOCKET_BUFFER_SIZE);
+
+        HttpProtocolParams.setVersion(httpParams, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setUserAgent(httpParams, userAgent);
+        return httpParams;
+    }
+
+    ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+        return keepAliveStrategy;
+    }
+
+    HttpRequestInterceptor getStatsInterceptor() {
+        return statsInterceptor;
+    }
+
+    /**
+     * Sets how long a pooled connection may stay idle before the reaper
+     * closes it. By default, 30 seconds. Servers sending a shorter
+     * <code>Keep-Alive: timeout</code> hint have their connections closed
+     * sooner.
+     * @param idleTimeoutMillis the idle timeout in milliseconds.
+     */
+    public HttpEngine setIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Closes pooled connections which have passed their keep-alive time or
+     * the idle timeout. Runs periodically in the background, but can be
+     * called directly, for example when the app goes into the background.
+     */
+    public void closeIdleConnections() {
+        int before = connectionManager.getConnectionsInPool();
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        int evicted = before - connectionManager.getConnectionsInPool();
+        if(evicted > 0) {
+            evictedConnections.addAndGet(evicted);
+        }
+        http2Transport.closeIdleConnections(idleTimeoutMillis);
+    }
+
+    /**
+     * Turns HTTP/2 on or off for https requests. Off by default.
+     * <p>
+     * HTTP/2 is negotiated through ALPN, which needs Android 5.0 or later.
+     * Hosts which don't agree to it, and all hosts on platforms without
+     * ALPN, are sent requests over HTTP/1.1 as before. Only used with the
+     * default TLS socket factory, and never through a proxy.
+     * @param enabled true to send requests over HTTP/2 where possible.
+     */
+    public HttpEngine setHttp2Enabled(boolean enabled) {
+        this.http2Enabled = enabled;
+        return this;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Sends plain http requests over HTTP/2 without negotiating it first
+     * (h2c with prior knowledge), for local test servers known to speak
+     * it. Turns HTTP/2 on as well.
+     * @param priorKnowledge true to assume plain http servers speak HTTP/2.
+     */
+    public HttpEngine setHttp2PriorKnowledge(boolean priorKnowledge) {
+        http2Transport.setPriorKnowledge(priorKnowledge);
+        if(priorKnowledge) {
+            http2Enabled = true;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the HTTP/2 transport, or null if HTTP/2 is turned off.
+     */
+    Http2Transport getHttp2Transport() {
+        return http2Enabled ? http2Transport : null;
+    }
+
+    /**
+     * Turns adaptive concurrency limiting on or off. Off by default.
+     * <p>
+     * With it on, the number of requests in flight to each host is set by
+     * a {@link ConcurrencyLimiter} following the host's latency, instead of
+     * by the fixed per-route connection limit, which is raised to the total
+     * limit so that the limiter has room. Fast hosts may then use all the
+     * connections the engine was created with, so create it with a larger
+     * total to let them go further.
+     * @param enabled true to limit concurrency by latency.
+     */
+    public HttpEngine setAdaptiveConcurrency(boolean enabled) {
+        this.adaptiveConcurrency = enabled;
+        connPerRoute.setDefaultMaxPerRoute(enabled ? maxTotalConnections : maxConnectionsPerRoute);
+        return this;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * Get the adaptive concurrency limiter, for checking the limits and
+     * latency estimates of each host.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the circuit breaker used to fail requests to failing hosts
+     * straight away, or null to always send them. Off by default.
+     * @param circuitBreaker the circuit breaker to use.
+     */
+    public HttpEngine setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Opens connections for a route in the background and parks them in the
+     * pool, so the first requests on the route skip DNS, TCP and TLS setup.
+     * Tunnelled routes aren't preconnected, since the tunnel would have to
+     * be set up without a request.
+     * @param route the route to connect.
+     * @param count the number of connections to open, capped at the per-route limit.
+     * @param params the client parameters supplying the connect timeouts.
+     * @param executor the executor to open the connections on.
+     */
+    void preconnect(final HttpRoute route, int count, final HttpParams params, Executor executor) {
+        if(route.isTunnelled()) {
+            return;
+        }
+        int connections = Math.min(count, connPerRoute.getMaxForRoute(route));
+        if(connections <= 0) {
+            return;
+        }
+
+        final long timeout = ConnManagerParams.getTimeout(params);
+        final List<ManagedClientConnection> opened = new ArrayList<ManagedClientConnection>(connections);
+        final AtomicInteger remaining = new AtomicInteger(connections);
+        for(int i = 0; i < connections; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    ManagedClientConnection conn = null;
+                    try {
+                        conn = connectionManager.requestConnection(route, null).getConnection(timeout, TimeUnit.MILLISECONDS);
+                        if(!conn.isOpen()) {
+                            conn.open(route, new BasicHttpContext(), params);
+                        }
+                        conn.markReusable();
+                        synchronized(opened) {
+                            opened.add(conn);
+                        }
+                    } catch(Exception e) {
+                        e.printStackTrace();
+                        if(conn != null) {
+                            try {
+                                conn.abortConnection();
+                            } catch(IOException ignored) {}
+                        }
+                    } finally {
+                        // Connections stay leased until the last task is done,
+                        // otherwise the pool would hand out the same one again.
+                        // No task waits for another, so a small executor can't
+                        // be tied up.
+                        if(remaining.decrementAndGet() == 0) {
+                            releasePreconnected(opened);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void releasePreconnected(List<ManagedClientConnection> opened) {
+        synchronized(opened) {
+            for(ManagedClientConnection conn : opened) {
+                connectionManager.releaseConnection(conn, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            opened.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the connection pool's activity, for checking
+     * how often connections are reused.
+     */
+    public PoolStats getPoolStats() {
+        return new PoolStats(connectionManager.getConnectionsInPool(), connectionManager.getLeasedConnections(),
+                requests.get(), reusedConnections.get(), evictedConnections.get());
+    }
+
+    /**
+     * Get the shared connection pool.
+     */
+    public ClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * Get the shared SchemeRegistry, which holds the socket factories used
+     * by every client of this engine.
+     */
+    public SchemeRegistry getSchemeRegistry() {
+        return schemeRegistry;
+    }
+
+    /**
+     * Sets the SSLSocketFactory used by every client of this engine for
+     * https requests.
+     * @param sslSocketFactory the socket factory to use for https requests.
+     */
+    public HttpEngine setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+        schemeRegistry.register(new Scheme("https", new HappyEyeballsSocketFactory(sslSocketFactory, hostResolver), 443));
+        return this;
+    }
+
+    /**
+     * Get the default TLS socket factory, whose session cache is shared by
+     * all https connections of this engine, for checking how often sessions
+     * are resumed. Not used after {@link #setSSLSocketFactory} is called.
+     */
+    public TlsSocketFactory getTlsSocketFactory() {
+        return tlsSocketFactory;
+    }
+
+    /**
+     * Sets the resolver used to look up host names for new connections. By
+     * default, a {@link CachingHostResolver} is used.
+     * @param resolver the resolver to use, or {@link HostResolver#SYSTEM} to use the platform resolver directly.
+     */
+    public HttpEngine setHostResolver(HostResolver resolver) {
+        hostResolver.setDelegate(resolver);
+        return this;
+    }
+
+    public HostResolver getHostResolver() {
+        return hostResolver.getDelegate();
+    }
+
+    public ThreadPoolExecutor getThreadPool() {
+        return threadPool;
+    }
+
+    /**
+     * Overrides the threadpool used by clients of this engine when queuing
+     * requests. By default, Executors.newCachedThreadPool() is used.
+     * @param threadPool an instance of {@link ThreadPoolExecutor} to use for queuing/pooling requests.
+     */
+    public HttpEngine setThreadPool(ThreadPoolExecutor threadPool) {
+        this.threadPool = threadPool;
+        return this;
+    }
+
+    // Counts the connections handed out to requests, which the pool keeps to itself
+    private static class LeaseCountingConnManager extends ThreadSafeClientConnManager {
+        private final Set<ManagedClientConnection> leased =
+                Collections.newSetFromMap(new ConcurrentHashMap<ManagedClientConnection, Boolean>());
+
+        LeaseCountingConnManager(HttpParams params, SchemeRegistry schemeRegistry) {
+            super(params, schemeRegistry);
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ConnectionPoolTimeoutException {
+                    ManagedClientConnection conn = request.getConnection(timeout, tunit);
+                    leased.add(conn);
+                    return conn;
+                }
+
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+            // Released connections may be released again, the set ignores that
+            leased.remove(conn);
+            super.releaseConnection(conn, validDuration, timeUnit);
+        }
+
+        int getLeasedConnections() {
+            return leased.size();
+        }
+    }
+
+    // Lets the resolver be swapped without re-registering the socket factories
+    private static class DelegatingHostResolver implements HostResolver {
+        private volatile HostResolver delegate;
+
+        DelegatingHostResolver(HostResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return delegate.resolve(host);
+        }
+
+        HostResolver getDelegate() {
+            return delegate;
+        }
+
+        void setDelegate(HostResolver delegate) {
+            this.delegate = delegate;
+        }
+    }
+
+    // HttpClient treats schemes with a layered socket factory as secure, so
+    // plain http must not expose the resolving factory's layering
+    private static class UnlayeredSocketFactory implements SocketFactory {
+        private final SocketFactory delegate;
+
+        UnlayeredSocketFactory(SocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        public Socket createSocket() throws IOException {
+            return delegate.createSocket();
+        }
+
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params)
+                throws IOException, UnknownHostException, ConnectTimeoutException {
+            return delegate.connectSocket(sock, host, port, localAddress, localPort, params);
+        }
+
+        public boolean isSecure(Socket sock) throws IllegalArgumentException {
+            return false;
+        }
+    }
+
+    Revalidator getRevalidator() {
+        return revalidator;
+    }
+
+    /**
+     * Returns the timer enforcing request deadlines.
+     */
+    TimerWheel getTimerWheel() {
+        return TimerWheel.getDefault();
+    }
+
+    /**
+     * Closes all pooled connections and stops the engine's threads. Clients
+     * using the engine can't make requests afterwards.
+     */
+    public void shutdown() {
+        threadPool.shutdown();
+        revalidationPool.shutdown();
+        Reaper.INSTANCE.unregister(this);
+        http2Transport.shutdown();
+        connectionManager.shutdown();
+    }
+
+    // Closes idle connections of all engines from one daemon thread,
+    // started with the first engine. Engines are held weakly, so the
+    // reaper doesn't keep an abandoned engine and its pool alive.
+    private static final class Reaper implements Runnable {
+        static final Reaper INSTANCE = new Reaper();
+
+        private final List<WeakReference<HttpEngine>> engines = new ArrayList<WeakReference<HttpEngine>>();
+
+        private Reaper() {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "AsyncHttpClient connection reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(this, REAPER_INTERVAL_MILLIS, REAPER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void register(HttpEngine engine) {
+            engines.add(new WeakReference<HttpEngine>(engine));
+        }
+
+        synchronized void unregister(HttpEngine engine) {
+            for(Iterator<WeakReference<HttpEngine>> it = engines.iterator(); it.hasNext();) {
+                HttpEngine e = it.next().get();
+                if(e == null || e == engine) {
+                    it.remove();
+                }
+            }
+        }
+
+        public void run() {
+            List<HttpEngine> live = new ArrayList<HttpEngine>();
+            synchronized(this) {
+                for(Iterator<WeakReference<HttpEngine>> it = engines.iterator(); it.hasNext();) {
+                    HttpEngine engine = it.next().get();
+                    if(engine == null) {
+                        it.remove();
+                    } else {
+                        live.add(engine);
+                    }
+                }
+            }
+            for(HttpEngine engine : live) {
+                try {
+                    engine.closeIdleConnections();
+                } catch(RuntimeException e) {
+                    // one engine failing mustn't stop the reaper for the rest
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.List;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+
+/**
+ * A {@link CookieStore} which can look up the cookies for a request
+ * directly, instead of returning the whole jar to be filtered.
+ * <p>
+ * {@link AsyncHttpClient} uses the lookup through {@link RequestAddIndexedCookies}
+ * whenever its cookie store implements this interface.
+ */
+public interface IndexedCookieStore extends CookieStore {
+    /**
+     * Returns the cookies which match the request's host and path and which
+     * haven't expired. Secure cookies are only returned for secure requests.
+     * @param host the request host.
+     * @param path the request path.
+     * @param secure whether the request is made over a secure connection.
+     */
+    public List<Cookie> getCookies(String host, String path, boolean secure);
+}
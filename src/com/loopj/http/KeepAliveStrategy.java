@@ -0,0 +1,67 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Decides how long a pooled connection may stay idle before it is closed:
+ * the server's <code>Keep-Alive: timeout</code> hint less a safety margin,
+ * capped by the engine's idle timeout.
+ * <p>
+ * Closing connections before the server does means a pooled connection is
+ * almost never found dead when it's reused, which is what makes it safe to
+ * turn off HttpClient's per-request stale connection check.
+ */
+class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+    // Allows for clock drift and requests in flight when the server closes
+    private static final long SAFETY_MARGIN_MILLIS = 1000;
+
+    private final HttpEngine engine;
+
+    KeepAliveStrategy(HttpEngine engine) {
+        this.engine = engine;
+    }
+
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        long duration = engine.getIdleTimeout();
+
+        HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+        while(it.hasNext()) {
+            HeaderElement element = it.nextElement();
+            if(element.getValue() != null && element.getName().equalsIgnoreCase("timeout")) {
+                try {
+                    long hint = Long.parseLong(element.getValue().trim()) * 1000 - SAFETY_MARGIN_MILLIS;
+                    duration = Math.min(duration, hint);
+                } catch(NumberFormatException e) {
+                    // ignore malformed hints
+                }
+            }
+        }
+
+        // Zero would keep the connection forever
+        return Math.max(1, duration);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies into log-linear buckets, like an HDR histogram: each
+ * power of two is split into 32 equal buckets, so a recorded value is off
+ * by at most about 3% while the whole range from a microsecond to over an
+ * hour takes 896 buckets. Recording is a single atomic add, and values
+ * land in different buckets, so threads rarely contend.
+ */
+class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values up to 2^32 microseconds, about 71 minutes
+    static final int BUCKETS = SUB_BUCKETS + (32 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    static final long MAX_VALUE = (1L << 32) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a latency in microseconds. Longer ones are counted as the
+     * longest the histogram holds.
+     */
+    void record(long micros) {
+        counts.incrementAndGet(bucket(Math.max(0, Math.min(micros, MAX_VALUE))));
+    }
+
+    LatencySnapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new LatencySnapshot(snapshot);
+    }
+
+    static int bucket(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long lowerBound(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    static long upperBound(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return lowerBound(bucket) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+/**
+ * A snapshot of the latencies recorded for one host and status class.
+ * <p>
+ * Latencies are kept in log-linear buckets, each power of two split into
+ * 32, so percentiles are accurate to about 3%. The raw bucket counts can
+ * be shipped as they are and added up with those of other snapshots,
+ * which percentiles can't.
+ *
+ * @see MetricsSnapshot#getLatency(String, int)
+ */
+public class LatencySnapshot {
+    private final long[] counts;
+    private final long count;
+
+    LatencySnapshot(long[] counts) {
+        this.counts = counts;
+        long count = 0;
+        for(long c : counts) {
+            count += c;
+        }
+        this.count = count;
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the latency the given fraction of requests was faster than,
+     * for example 0.99 for the 99th percentile.
+     */
+    public long getPercentileMicros(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return LatencyHistogram.upperBound(i);
+            }
+        }
+        return getMaxMicros();
+    }
+
+    public long getMeanMicros() {
+        if(count == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for(int i = 0; i < counts.length; i++) {
+            if(counts[i] > 0) {
+                sum += counts[i] * ((LatencyHistogram.lowerBound(i) + LatencyHistogram.upperBound(i)) / 2.0);
+            }
+        }
+        return Math.round(sum / count);
+    }
+
+    public long getMaxMicros() {
+        for(int i = counts.length - 1; i >= 0; i--) {
+            if(counts[i] > 0) {
+                return LatencyHistogram.upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of latencies in each bucket.
+     * @see #getBucketLowerBoundMicros(int)
+     */
+    public long[] getBucketCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Returns the lowest latency counted in a bucket. Each bucket holds the
+     * latencies from its lower bound up to the next bucket's.
+     */
+    public static long getBucketLowerBoundMicros(int bucket) {
+        return LatencyHistogram.lowerBound(bucket);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot[count=" + count + ", mean=" + getMeanMicros() / 1000 + "ms, p50="
+                + getPercentileMicros(0.5) / 1000 + "ms, p99=" + getPercentileMicros(0.99) / 1000
+                + "ms, max=" + getMaxMicros() / 1000 + "ms]";
+    }
+}
@@ -0,0 +1,77 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A simple in-memory {@link ResponseCache} which keeps the most recently
+ * used entries, up to a maximum number of entries.
+ * <p>
+ * For example:
+ * <p>
+ * <pre>
+ * AsyncHttpClient client = new AsyncHttpClient();
+ * client.setResponseCache(new MemoryResponseCache(100));
+ * </pre>
+ */
+public class MemoryResponseCache implements ResponseCache {
+    private static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final Map<String, CacheEntry> entries;
+
+    /**
+     * Creates a new cache holding up to 64 entries.
+     */
+    public MemoryResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a new cache holding up to the given number of entries.
+     * @param maxEntries the number of entries to keep before evicting the least recently used one.
+     */
+    public MemoryResponseCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized CacheEntry get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, CacheEntry entry) {
+        entries.put(key, entry);
+    }
+
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@link EventListener} which keeps the client's own metrics, so they
+ * can be shipped from production without an agent:
+ * <ul>
+ * <li>the latency of requests per host and status class, from the time a
+ * request starts running until it ends, including any retries;</li>
+ * <li>counters of retries, cancellations and bytes of decoded gzip
+ * responses;</li>
+ * <li>the number of leased and idle connections, HTTP/2 ones included,
+ * read when a snapshot is taken;</li>
+ * <li>the number of requests made but not yet running, whether they wait
+ * for a thread, a rate limiter or a concurrency permit.</li>
+ * </ul>
+ * Latencies go into log-linear histograms and counters are striped across
+ * threads, so recording never takes a lock. Requests answered from the
+ * cache and cancelled requests aren't timed.
+ * <pre>
+ * MetricsRegistry metrics = new MetricsRegistry(client.getEngine());
+ * client.setEventListener(metrics);
+ * ...
+ * upload(metrics.snapshot());
+ * </pre>
+ */
+public class MetricsRegistry extends EventListener {
+    // Status classes 1xx to 5xx, and failures without a response
+    private static final int STATUS_CLASSES = 6;
+
+    private final HttpEngine engine;
+    private final ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>> latencies =
+            new ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>>();
+    private final ConcurrentHashMap<AsyncHttpRequest, Call> calls = new ConcurrentHashMap<AsyncHttpRequest, Call>();
+    private final ConcurrentHashMap<AsyncHttpRequest, Boolean> queued = new ConcurrentHashMap<AsyncHttpRequest, Boolean>();
+    private final StripedCounter retries = new StripedCounter();
+    private final StripedCounter cancellations = new StripedCounter();
+    private final StripedCounter decodedBytes = new StripedCounter();
+
+    /**
+     * Creates a registry without the connection pool gauges.
+     */
+    public MetricsRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param engine the engine whose connections are reported.
+     */
+    public MetricsRegistry(HttpEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void callQueued(AsyncHttpRequest call) {
+        queued.put(call, Boolean.TRUE);
+    }
+
+    @Override
+    public void callStart(AsyncHttpRequest call) {
+        queued.remove(call);
+        calls.put(call, new Call(System.nanoTime()));
+    }
+
+    @Override
+    public void attemptStart(AsyncHttpRequest call, int attempt) {
+        if(attempt > 1) {
+            retries.increment();
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(AsyncHttpRequest call, int statusCode) {
+        Call c = calls.get(call);
+        if(c != null) {
+            c.statusCode = statusCode;
+        }
+    }
+
+    @Override
+    public void responseBodyDecoded(AsyncHttpRequest call, long bytes) {
+        decodedBytes.add(bytes);
+    }
+
+    @Override
+    public void callEnd(AsyncHttpRequest call) {
+        Call c = calls.remove(call);
+        if(c != null && c.statusCode > 0 && !call.isCancelled()) {
+            record(call, Math.min(c.statusCode / 100, STATUS_CLASSES - 1), c.startNanos);
+        }
+    }
+
+    @Override
+    public void callFailed(AsyncHttpRequest call, IOException e) {
+        // Requests can fail while queued, turned away by a rate limiter or
+        // past their deadline
+        queued.remove(call);
+        Call c = calls.remove(call);
+        if(c != null && !call.isCancelled()) {
+            record(call, MetricsSnapshot.FAILED, c.startNanos);
+        }
+    }
+
+    @Override
+    public void callCanceled(AsyncHttpRequest call) {
+        queued.remove(call);
+        cancellations.increment();
+    }
+
+    /**
+     * Returns the metrics recorded so far, along with the current size of
+     * the engine's pools.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, LatencySnapshot[]> snapshots = new TreeMap<String, LatencySnapshot[]>();
+        for(Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : latencies.entrySet()) {
+            LatencySnapshot[] classes = new LatencySnapshot[STATUS_CLASSES];
+            for(int i = 0; i < STATUS_CLASSES; i++) {
+                LatencyHistogram histogram = entry.getValue().get(i);
+                if(histogram != null) {
+                    classes[i] = histogram.snapshot();
+                }
+            }
+            snapshots.put(entry.getKey(), classes);
+        }
+
+        int leased = 0;
+        int idle = 0;
+        if(engine != null) {
+            PoolStats pool = engine.getPoolStats();
+            leased = pool.getLeasedConnections();
+            idle = pool.getIdleConnections();
+            Http2Transport http2 = engine.getHttp2Transport();
+            if(http2 != null) {
+                int busy = http2.getBusyConnectionCount();
+                leased += busy;
+                idle += http2.getConnectionCount() - busy;
+            }
+        }
+        return new MetricsSnapshot(snapshots, retries.sum(), cancellations.sum(), decodedBytes.sum(),
+                leased, idle, queued.size());
+    }
+
+    private void record(AsyncHttpRequest call, int statusClass, long startNanos) {
+        String route = AsyncHttpRequest.getRoute(call.getRequest().getURI());
+        AtomicReferenceArray<LatencyHistogram> classes = latencies.get(route);
+        if(classes == null) {
+            AtomicReferenceArray<LatencyHistogram> created = new AtomicReferenceArray<LatencyHistogram>(STATUS_CLASSES);
+            classes = latencies.putIfAbsent(route, created);
+            if(classes == null) {
+                classes = created;
+            }
+        }
+        // Histograms are created on first use, most hosts only see a few classes
+        LatencyHistogram histogram = classes.get(statusClass);
+        if(histogram == null) {
+            classes.compareAndSet(statusClass, null, new LatencyHistogram());
+            histogram = classes.get(statusClass);
+        }
+        histogram.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private static class Call {
+        final long startNanos;
+        volatile int statusCode;
+
+        Call(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+}
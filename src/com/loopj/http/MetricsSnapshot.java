@@ -0,0 +1,137 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A snapshot of a {@link MetricsRegistry}: latencies per host and status
+ * class, counters since the registry was created, and the current size of
+ * the connection pool and the request queue.
+ *
+ * @see MetricsRegistry#snapshot()
+ */
+public class MetricsSnapshot {
+    /** The status class of requests which failed without a response. */
+    public static final int FAILED = 0;
+
+    private final Map<String, LatencySnapshot[]> latencies;
+    private final long retries;
+    private final long cancellations;
+    private final long decodedBytes;
+    private final int leasedConnections;
+    private final int idleConnections;
+    private final int queuedRequests;
+
+    MetricsSnapshot(Map<String, LatencySnapshot[]> latencies, long retries, long cancellations, long decodedBytes,
+            int leasedConnections, int idleConnections, int queuedRequests) {
+        this.latencies = latencies;
+        this.retries = retries;
+        this.cancellations = cancellations;
+        this.decodedBytes = decodedBytes;
+        this.leasedConnections = leasedConnections;
+        this.idleConnections = idleConnections;
+        this.queuedRequests = queuedRequests;
+    }
+
+    /**
+     * Returns the hosts requests were sent to, as scheme://host:port.
+     */
+    public Set<String> getRoutes() {
+        return Collections.unmodifiableSet(latencies.keySet());
+    }
+
+    /**
+     * Returns the latencies of the requests to a host which ended with a
+     * status code of the given class, or null if there were none.
+     * @param route the host, as scheme://host:port.
+     * @param statusClass the first digit of the status code, for example 2 for 2xx responses, or {@link #FAILED}.
+     */
+    public LatencySnapshot getLatency(String route, int statusClass) {
+        LatencySnapshot[] classes = latencies.get(route);
+        if(classes == null || statusClass < 0 || statusClass >= classes.length) {
+            return null;
+        }
+        return classes[statusClass];
+    }
+
+    /**
+     * Returns the number of attempts made after the first one of a request.
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getCancellations() {
+        return cancellations;
+    }
+
+    /**
+     * Returns the number of bytes of gzip-compressed responses, after
+     * decoding.
+     */
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /**
+     * Returns the number of connections in use by requests, counting
+     * HTTP/2 connections with open streams.
+     */
+    public int getLeasedConnections() {
+        return leasedConnections;
+    }
+
+    /**
+     * Returns the number of open connections waiting for a request.
+     */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /**
+     * Returns the number of requests made but not yet running, waiting for
+     * a thread, a rate limiter or a concurrency permit.
+     */
+    public int getQueuedRequests() {
+        return queuedRequests;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MetricsSnapshot[retries=").append(retries)
+                .append(", cancellations=").append(cancellations)
+                .append(", decodedBytes=").append(decodedBytes)
+                .append(", leased=").append(leasedConnections)
+                .append(", idle=").append(idleConnections)
+                .append(", queued=").append(queuedRequests);
+        for(Map.Entry<String, LatencySnapshot[]> entry : latencies.entrySet()) {
+            LatencySnapshot[] classes = entry.getValue();
+            for(int i = 0; i < classes.length; i++) {
+                if(classes[i] != null) {
+                    sb.append(", ").append(entry.getKey()).append(' ')
+                            .append(i == FAILED ? "failed" : i + "xx").append('=').append(classes[i]);
+                }
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
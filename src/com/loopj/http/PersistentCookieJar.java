@@ -0,0 +1,247 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+
+/**
+ * A persistent cookie store which implements the Apache HttpClient
+ * {@link CookieStore} interface, and keeps its cookies in a
+ * {@link CookieStorage} between sessions.
+ * <p>
+ * Instances of this class are designed to be used with
+ * {@link AsyncHttpClient#setCookieStore}. On Android use
+ * {@link com.loopj.http.android.PersistentCookieStore}, elsewhere pair the
+ * jar with a {@link FileCookieStorage}.
+ * <p>
+ * By default every change is saved before returning. Jars created with a
+ * flush delay instead mark themselves as dirty and save on a background
+ * thread once the delay has passed, so a response setting many cookies
+ * costs one write. Changes made within the delay are lost if the process
+ * dies, call {@link #flush()} or {@link #close()} to write them out sooner.
+ * <p>
+ * Cookies are kept in a {@link CookieIndex}, keyed by name, domain and path,
+ * so requests only look at the cookies stored for their own domain. The
+ * whole jar is saved as a single binary blob, and the cookies of a domain
+ * are only decoded the first time they are needed. Expired cookies are
+ * removed a few domains at a time on the background thread.
+ * <p>
+ * All jars share a single background thread, started when the first jar
+ * is created.
+ */
+public class PersistentCookieJar implements IndexedCookieStore {
+    private static final long EXPIRY_SWEEP_INTERVAL_MILLIS = 60 * 1000;
+    private static final int EXPIRY_SWEEP_DOMAINS = 8;
+
+    private final CookieIndex cookies = new CookieIndex();
+    private final CookieStorage storage;
+
+    private final long flushDelayMillis;
+    private final Object dirtyLock = new Object();
+    private final Object flushLock = new Object();
+    private boolean dirty;
+    private boolean flushScheduled;
+    private boolean closed;
+    private final ScheduledFuture<?> expirySweep;
+
+    /**
+     * Construct a persistent cookie jar which saves every change immediately.
+     */
+    public PersistentCookieJar(CookieStorage storage) {
+        this(storage, 0);
+    }
+
+    /**
+     * Construct a persistent cookie jar which batches changes and saves
+     * them on a background thread.
+     * @param flushDelayMillis how long to collect changes before saving them, or 0 to save every change immediately.
+     */
+    public PersistentCookieJar(CookieStorage storage, long flushDelayMillis) {
+        this.storage = storage;
+        this.flushDelayMillis = flushDelayMillis;
+
+        // Load any previously stored cookies into the jar, expired cookies
+        // are dropped as each domain is decoded
+        try {
+            byte[] blob = storage.load();
+            if(blob != null) {
+                cookies.load(blob);
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+
+        expirySweep = Writer.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if(!cookies.removeExpired(new Date(), EXPIRY_SWEEP_DOMAINS).isEmpty()) {
+                    persist();
+                }
+            }
+        }, EXPIRY_SWEEP_INTERVAL_MILLIS, EXPIRY_SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        // Save cookie into local store, or remove if expired
+        if(!cookie.isExpired(new Date())) {
+            cookies.put(cookie);
+        } else {
+            cookies.remove(CookieIndex.key(cookie));
+        }
+
+        // Save cookie into persistent store
+        persist();
+    }
+
+    /**
+     * Adds a batch of cookies and saves the jar once, for importing cookies
+     * from elsewhere.
+     */
+    protected void addCookies(Collection<Cookie> imported) {
+        Date now = new Date();
+        for(Cookie cookie : imported) {
+            if(!cookie.isExpired(now)) {
+                cookies.put(cookie);
+            }
+        }
+        persist();
+    }
+
+    @Override
+    public void clear() {
+        // Clear cookies from local store
+        cookies.clear();
+
+        // Clear cookies from persistent store
+        synchronized(flushLock) {
+            synchronized(dirtyLock) {
+                dirty = false;
+            }
+            try {
+                storage.clear();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public boolean clearExpired(Date date) {
+        boolean clearedAny = !cookies.removeExpired(date).isEmpty();
+        if(clearedAny) {
+            persist();
+        }
+        return clearedAny;
+    }
+
+    @Override
+    public List<Cookie> getCookies() {
+        return new ArrayList<Cookie>(cookies.values());
+    }
+
+    public List<Cookie> getCookies(String host, String path, boolean secure) {
+        return cookies.match(host, path, secure, new Date());
+    }
+
+    /**
+     * Writes all pending changes to storage now, on the calling thread.
+     */
+    public void flush() {
+        // Flushes are serialized so an older snapshot can never be
+        // saved after a newer one
+        synchronized(flushLock) {
+            synchronized(dirtyLock) {
+                if(!dirty) {
+                    return;
+                }
+                dirty = false;
+            }
+            try {
+                storage.save(cookies.toByteArray());
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending changes to storage and stops the background work
+     * of this jar. Intended to be called when the application shuts down, the jar saves
+     * every change immediately afterwards.
+     */
+    public void close() {
+        synchronized(dirtyLock) {
+            closed = true;
+        }
+        expirySweep.cancel(false);
+        flush();
+    }
+
+    private void persist() {
+        synchronized(dirtyLock) {
+            dirty = true;
+            if(flushDelayMillis > 0 && !closed) {
+                scheduleFlush();
+                return;
+            }
+        }
+
+        // Write-through and closed jars save every change immediately
+        flush();
+    }
+
+    // Called with the dirtyLock held
+    private void scheduleFlush() {
+        if(flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        Writer.executor.schedule(new Runnable() {
+            public void run() {
+                synchronized(dirtyLock) {
+                    flushScheduled = false;
+                }
+                flush();
+            }
+        }, flushDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Holds the thread shared by all jars, created on first use
+    private static class Writer {
+        static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PersistentCookieJar writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
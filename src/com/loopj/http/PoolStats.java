@@ -0,0 +1,97 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+/**
+ * A snapshot of an {@link HttpEngine}'s connection pool activity.
+ *
+ * @see HttpEngine#getPoolStats()
+ */
+public class PoolStats {
+    private final int connectionsInPool;
+    private final int leasedConnections;
+    private final long requests;
+    private final long reusedConnections;
+    private final long evictedConnections;
+
+    PoolStats(int connectionsInPool, int leasedConnections, long requests, long reusedConnections, long evictedConnections) {
+        this.connectionsInPool = connectionsInPool;
+        this.leasedConnections = leasedConnections;
+        this.requests = requests;
+        this.reusedConnections = reusedConnections;
+        this.evictedConnections = evictedConnections;
+    }
+
+    /**
+     * Returns the number of open connections, both idle and in use.
+     */
+    public int getConnectionsInPool() {
+        return connectionsInPool;
+    }
+
+    /**
+     * Returns the number of connections in use by requests.
+     */
+    public int getLeasedConnections() {
+        return leasedConnections;
+    }
+
+    /**
+     * Returns the number of open connections waiting in the pool for a
+     * request.
+     */
+    public int getIdleConnections() {
+        return Math.max(0, connectionsInPool - leasedConnections);
+    }
+
+    /**
+     * Returns the number of requests sent, including retries.
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns the number of requests sent over a connection which had
+     * already been used for an earlier request.
+     */
+    public long getReusedConnections() {
+        return reusedConnections;
+    }
+
+    /**
+     * Returns the number of idle connections closed by the reaper.
+     */
+    public long getEvictedConnections() {
+        return evictedConnections;
+    }
+
+    /**
+     * Returns the fraction of requests which reused a connection.
+     */
+    public double getReuseRate() {
+        return requests > 0 ? (double) reusedConnections / requests : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats[connections=" + connectionsInPool + ", leased=" + leasedConnections + ", requests=" + requests
+                + ", reused=" + reusedConnections + ", evicted=" + evictedConnections + "]";
+    }
+}
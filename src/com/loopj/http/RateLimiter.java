@@ -0,0 +1,330 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Paces requests with token buckets, so that APIs with strict request
+ * quotas aren't sent bursts they answer with 429s.
+ * <p>
+ * Buckets can be set for all requests made through the limiter, for each
+ * host, and for paths under a prefix on a host. A request takes a token
+ * from every bucket it falls under before it is handed to the executor,
+ * so waiting requests don't hold a thread. They wait in a queue instead,
+ * in the order they were made, and are sent from the timer thread when
+ * their buckets fill up again. A request only waits behind earlier ones
+ * waiting on the same empty bucket, so a host with a low limit doesn't
+ * hold up requests to other hosts.
+ * When the queue is full, its {@link RejectionPolicy} decides which
+ * request fails with a {@link RateLimitExceededException}.
+ * <p>
+ * The limits of a limiter are shared by every client it is set on.
+ *
+ * @see AsyncHttpClient#setRateLimiter(RateLimiter)
+ */
+public class RateLimiter {
+    private static final int DEFAULT_MAX_QUEUE_LENGTH = 100;
+
+    private Bucket clientBucket;
+    private double defaultHostRate;
+    private int defaultHostBurst;
+    private final Map<String, Bucket> hostBuckets = new HashMap<String, Bucket>();
+    private final Map<String, Bucket> configuredHostBuckets = new HashMap<String, Bucket>();
+    private final List<PathBucket> pathBuckets = new ArrayList<PathBucket>();
+    private int maxQueueLength = DEFAULT_MAX_QUEUE_LENGTH;
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.REJECT_NEW;
+
+    private final LinkedList<Entry> queue = new LinkedList<Entry>();
+    private TimerWheel timerWheel;
+    private TimerWheel.Timeout wakeUp;
+    private long wakeUpTime;
+
+    /**
+     * Limits all requests made through this limiter.
+     * @param permitsPerSecond the sustained request rate.
+     * @param burst how many requests may be sent at once after a quiet spell.
+     */
+    public synchronized RateLimiter setClientLimit(double permitsPerSecond, int burst) {
+        clientBucket = new Bucket(permitsPerSecond, burst);
+        return this;
+    }
+
+    /**
+     * Limits the requests to each host which has no limit of its own.
+     * @param permitsPerSecond the sustained request rate per host.
+     * @param burst how many requests may be sent at once after a quiet spell.
+     */
+    public synchronized RateLimiter setDefaultHostLimit(double permitsPerSecond, int burst) {
+        checkLimit(permitsPerSecond, burst);
+        defaultHostRate = permitsPerSecond;
+        defaultHostBurst = burst;
+        hostBuckets.clear();
+        return this;
+    }
+
+    /**
+     * Limits the requests to a host, on any port.
+     * @param permitsPerSecond the sustained request rate.
+     * @param burst how many requests may be sent at once after a quiet spell.
+     */
+    public synchronized RateLimiter setHostLimit(String host, double permitsPerSecond, int burst) {
+        configuredHostBuckets.put(host.toLowerCase(Locale.ENGLISH), new Bucket(permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limits the requests to paths on a host starting with a prefix, on top
+     * of the host's own limit.
+     * @param permitsPerSecond the sustained request rate.
+     * @param burst how many requests may be sent at once after a quiet spell.
+     */
+    public synchronized RateLimiter setPathLimit(String host, String pathPrefix, double permitsPerSecond, int burst) {
+        pathBuckets.add(new PathBucket(host.toLowerCase(Locale.ENGLISH), pathPrefix, new Bucket(permitsPerSecond, burst)));
+        return this;
+    }
+
+    /**
+     * Sets how many requests may wait for tokens, and what happens to a
+     * request beyond that. By default, 100 requests and
+     * {@link RejectionPolicy#REJECT_NEW}.
+     */
+    public synchronized RateLimiter setMaxQueueLength(int maxQueueLength, RejectionPolicy rejectionPolicy) {
+        if(maxQueueLength < 0) {
+            throw new IllegalArgumentException("Queue length may not be negative");
+        }
+        if(rejectionPolicy == null) {
+            throw new IllegalArgumentException("Rejection policy may not be null");
+        }
+        this.maxQueueLength = maxQueueLength;
+        this.rejectionPolicy = rejectionPolicy;
+        return this;
+    }
+
+    /**
+     * Returns the number of requests waiting for tokens.
+     */
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Hands a request to the executor once every bucket it falls under has
+     * a token for it, or fails it if it can't be queued.
+     * @param timerWheel the timer waking the queue up when tokens are due.
+     */
+    void submit(URI uri, RequestFuture future, Executor executor, TimerWheel timerWheel) {
+        Entry rejected = null;
+        List<Entry> ready;
+        synchronized(this) {
+            this.timerWheel = timerWheel;
+            Entry entry = new Entry(uri, future, executor, getBuckets(uri));
+            queue.add(entry);
+            ready = drain();
+            if(queue.size() > maxQueueLength) {
+                if(rejectionPolicy == RejectionPolicy.DROP_OLDEST) {
+                    rejected = queue.removeFirst();
+                } else {
+                    queue.removeLast();
+                    rejected = entry;
+                }
+            }
+        }
+        if(rejected != null) {
+            reject(rejected);
+        }
+        dispatch(ready);
+    }
+
+    // Called on the timer thread when tokens are due
+    private void wakeUp() {
+        List<Entry> ready;
+        synchronized(this) {
+            wakeUp = null;
+            ready = drain();
+        }
+        dispatch(ready);
+    }
+
+    // Takes the tokens for every queued request whose buckets have them,
+    // and schedules a wake-up for the next token the rest are waiting on
+    private List<Entry> drain() {
+        List<Entry> ready = new ArrayList<Entry>();
+        Set<Bucket> blocked = new HashSet<Bucket>();
+        long now = System.nanoTime();
+        long nextToken = Long.MAX_VALUE;
+        for(Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if(entry.future.isDone()) {
+                // cancelled while it waited
+                it.remove();
+                continue;
+            }
+            boolean available = true;
+            for(Bucket bucket : entry.buckets) {
+                if(blocked.contains(bucket)) {
+                    available = false;
+                    continue;
+                }
+                long wait = bucket.nanosUntilToken(now);
+                if(wait > 0) {
+                    // Later requests needing this bucket wait their turn
+                    blocked.add(bucket);
+                    available = false;
+                    nextToken = Math.min(nextToken, wait);
+                }
+            }
+            if(available) {
+                for(Bucket bucket : entry.buckets) {
+                    bucket.take();
+                }
+                it.remove();
+                ready.add(entry);
+            }
+        }
+
+        if(nextToken != Long.MAX_VALUE) {
+            long delayMillis = Math.max(1, (nextToken + 999999) / 1000000);
+            long time = System.currentTimeMillis() + delayMillis;
+            if(wakeUp == null || time < wakeUpTime) {
+                if(wakeUp != null) {
+                    wakeUp.cancel();
+                }
+                wakeUpTime = time;
+                wakeUp = timerWheel.schedule(new Runnable() {
+                    public void run() {
+                        wakeUp();
+                    }
+                }, delayMillis);
+            }
+        }
+        return ready;
+    }
+
+    private void dispatch(List<Entry> ready) {
+        for(Entry entry : ready) {
+            try {
+                entry.executor.execute(entry.future);
+            } catch(RejectedExecutionException e) {
+                entry.future.failQueued(new IOException("Executor rejected request for " + entry.uri));
+            }
+        }
+    }
+
+    private static void reject(Entry entry) {
+        // Does nothing for a request cancelled while it waited
+        entry.future.failQueued(new RateLimitExceededException("Rate limit queue full for " + entry.uri));
+    }
+
+    private List<Bucket> getBuckets(URI uri) {
+        List<Bucket> buckets = new ArrayList<Bucket>(3);
+        if(clientBucket != null) {
+            buckets.add(clientBucket);
+        }
+        String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ENGLISH) : "";
+        Bucket hostBucket = configuredHostBuckets.get(host);
+        if(hostBucket == null && defaultHostRate > 0) {
+            hostBucket = hostBuckets.get(host);
+            if(hostBucket == null) {
+                hostBucket = new Bucket(defaultHostRate, defaultHostBurst);
+                hostBuckets.put(host, hostBucket);
+            }
+        }
+        if(hostBucket != null) {
+            buckets.add(hostBucket);
+        }
+        String path = uri.getRawPath() != null ? uri.getRawPath() : "";
+        for(PathBucket pathBucket : pathBuckets) {
+            if(pathBucket.host.equals(host) && path.startsWith(pathBucket.pathPrefix)) {
+                buckets.add(pathBucket.bucket);
+            }
+        }
+        return buckets;
+    }
+
+    private static void checkLimit(double permitsPerSecond, int burst) {
+        if(permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+        }
+    }
+
+    // Guarded by the limiter's lock
+    private static final class Bucket {
+        private final double nanosPerToken;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        Bucket(double permitsPerSecond, int burst) {
+            checkLimit(permitsPerSecond, burst);
+            this.nanosPerToken = 1000000000 / permitsPerSecond;
+            this.capacity = burst;
+            this.tokens = burst;
+        }
+
+        long nanosUntilToken(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+            lastRefill = now;
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * nanosPerToken);
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+    }
+
+    private static final class PathBucket {
+        final String host;
+        final String pathPrefix;
+        final Bucket bucket;
+
+        PathBucket(String host, String pathPrefix, Bucket bucket) {
+            this.host = host;
+            this.pathPrefix = pathPrefix;
+            this.bucket = bucket;
+        }
+    }
+
+    private static final class Entry {
+        final URI uri;
+        final RequestFuture future;
+        final Executor executor;
+        final List<Bucket> buckets;
+
+        Entry(URI uri, RequestFuture future, Executor executor, List<Bucket> buckets) {
+            this.uri = uri;
+            this.future = future;
+            this.executor = executor;
+            this.buckets = buckets;
+        }
+    }
+}
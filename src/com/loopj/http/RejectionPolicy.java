@@ -0,0 +1,39 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.loopj.http;
+
+/**
+ * What a {@link RateLimiter} does with a request when its queue is full.
+ *
+ * @see RateLimiter#setMaxQueueLength(int, RejectionPolicy)
+ */
+public enum RejectionPolicy {
+    /**
+     * Fail the new request with a {@link RateLimitExceededException}. This
+     * is the default.
+     */
+    REJECT_NEW,
+
+    /**
+     * Fail the request which has waited the longest, and queue the new one
+     * in its place, for callers which only care about recent requests.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,146 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAddCookies;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.CookieSpecRegistry;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A replacement for HttpClient's {@link RequestAddCookies} interceptor which
+ * asks an {@link IndexedCookieStore} for the cookies matching the request,
+ * so the cost of adding cookies doesn't grow with the size of the jar.
+ * <p>
+ * Any other kind of {@link CookieStore} has all of its cookies matched
+ * against the request, as {@link RequestAddCookies} does. Unlike that
+ * interceptor, this one doesn't need a connection in the context, so it
+ * works for requests sent over HTTP/2 as well.
+ */
+public class RequestAddIndexedCookies implements HttpRequestInterceptor {
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        CookieStore cookieStore = (CookieStore) context.getAttribute(ClientContext.COOKIE_STORE);
+        if(cookieStore == null) {
+            return;
+        }
+
+        if(request.getRequestLine().getMethod().equalsIgnoreCase("CONNECT")) {
+            return;
+        }
+
+        CookieSpecRegistry registry = (CookieSpecRegistry) context.getAttribute(ClientContext.COOKIESPEC_REGISTRY);
+        if(registry == null) {
+            return;
+        }
+
+        HttpHost targetHost = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+        if(targetHost == null) {
+            throw new IllegalStateException("Target host not specified in HTTP context");
+        }
+
+        URI requestURI;
+        if(request instanceof HttpUriRequest) {
+            requestURI = ((HttpUriRequest) request).getURI();
+        } else {
+            try {
+                requestURI = new URI(request.getRequestLine().getUri());
+            } catch(URISyntaxException e) {
+                throw new ProtocolException("Invalid request URI: " + request.getRequestLine().getUri(), e);
+            }
+        }
+
+        ManagedClientConnection conn = (ManagedClientConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+        boolean secure = conn != null ? conn.isSecure() : "https".equalsIgnoreCase(targetHost.getSchemeName());
+        int port = targetHost.getPort();
+        if(port < 0) {
+            port = conn != null ? conn.getRemotePort() : (secure ? 443 : 80);
+        }
+        String path = requestURI.getPath();
+        if(path == null || path.length() == 0) {
+            path = "/";
+        }
+
+        String policy = HttpClientParams.getCookiePolicy(request.getParams());
+        CookieSpec cookieSpec = registry.getCookieSpec(policy, request.getParams());
+        CookieOrigin cookieOrigin = new CookieOrigin(targetHost.getHostName(), port, path, secure);
+
+        // The index has already matched domain, path, security and expiry,
+        // the spec only gets a say on the few remaining candidates
+        List<Cookie> candidates;
+        if(cookieStore instanceof IndexedCookieStore) {
+            candidates = ((IndexedCookieStore) cookieStore).getCookies(targetHost.getHostName(), path, secure);
+        } else {
+            candidates = cookieStore.getCookies();
+        }
+        List<Cookie> matchedCookies = new ArrayList<Cookie>(candidates.size());
+        Date now = new Date();
+        for(Cookie cookie : candidates) {
+            if(!cookie.isExpired(now) && cookieSpec.match(cookie, cookieOrigin)) {
+                matchedCookies.add(cookie);
+            }
+        }
+
+        if(!matchedCookies.isEmpty()) {
+            for(Header header : cookieSpec.formatCookies(matchedCookies)) {
+                request.addHeader(header);
+            }
+        }
+
+        int version = cookieSpec.getVersion();
+        if(version > 0) {
+            boolean needVersionHeader = false;
+            for(Cookie cookie : matchedCookies) {
+                if(version != cookie.getVersion()) {
+                    needVersionHeader = true;
+                }
+            }
+            if(needVersionHeader) {
+                Header header = cookieSpec.getVersionHeader();
+                if(header != null) {
+                    request.addHeader(header);
+                }
+            }
+        }
+
+        // Needed by ResponseProcessCookies to validate cookies set by the response
+        context.setAttribute(ClientContext.COOKIE_SPEC, cookieSpec);
+        context.setAttribute(ClientContext.COOKIE_ORIGIN, cookieOrigin);
+    }
+}
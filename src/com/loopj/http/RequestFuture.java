@@ -0,0 +1,152 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@link java.util.concurrent.Future} handed out for a queued
+ * {@link AsyncHttpRequest}.
+ * <p>
+ * Cancelling it does more than interrupt the thread, which blocking socket
+ * reads ignore: a running request is aborted, which closes its connection
+ * or resets its HTTP/2 stream, and a queued request is taken off the
+ * executor's queue straight away rather than when a thread gets to it.
+ * Likewise a request whose deadline passes while it is still queued fails
+ * with a {@link DeadlineExceededException} as soon as the deadline passes.
+ */
+class RequestFuture extends FutureTask<Void> {
+    private final AsyncHttpRequest request;
+    private final Executor executor;
+    private volatile CancellationRegistry.Scope scope;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile TimerWheel.Timeout queueTimeout;
+
+    RequestFuture(AsyncHttpRequest request, Executor executor) {
+        super(request, null);
+        this.request = request;
+        this.executor = executor;
+    }
+
+    AsyncHttpRequest getRequest() {
+        return request;
+    }
+
+    void setScope(CancellationRegistry.Scope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Fails the request if it is still queued when the deadline passes.
+     * Once it runs, the request enforces the deadline itself.
+     */
+    void setDeadline(long deadline, TimerWheel timerWheel) {
+        queueTimeout = timerWheel.schedule(new Runnable() {
+            public void run() {
+                failQueued(new DeadlineExceededException("Deadline exceeded while queued for " + request.getRequest().getURI()));
+            }
+        }, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Fails the request with the given exception unless it has already
+     * started, finished or been cancelled. The handler is told on the
+     * request's executor, not on the timer or caller thread.
+     * @return true if the request was failed.
+     */
+    boolean failQueued(final IOException e) {
+        synchronized(this) {
+            if(isDone() || !started.compareAndSet(false, true)) {
+                return false;
+            }
+            setException(e);
+        }
+        TimerWheel.Timeout timeout = queueTimeout;
+        if(timeout != null) {
+            timeout.cancel();
+        }
+        if(executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).remove(this);
+        }
+        Runnable delivery = new Runnable() {
+            public void run() {
+                request.getEventListener().callFailed(request, e);
+                request.fail(e);
+            }
+        };
+        try {
+            executor.execute(delivery);
+        } catch(RejectedExecutionException rejected) {
+            // The executor is full or shut down, tell the handler here
+            // rather than not at all
+            delivery.run();
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        // A request failed while queued may still be handed to a thread
+        if(!started.compareAndSet(false, true)) {
+            return;
+        }
+        TimerWheel.Timeout timeout = queueTimeout;
+        if(timeout != null) {
+            timeout.cancel();
+        }
+        super.run();
+    }
+
+    @Override
+    protected void done() {
+        // Completed requests leave their scope straight away
+        CancellationRegistry.Scope s = scope;
+        if(s != null) {
+            s.remove(this);
+        }
+        // A request which never ran still holds the permit it was admitted with
+        request.releasePermit();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized(this) {
+            if(!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+        }
+        TimerWheel.Timeout timeout = queueTimeout;
+        if(timeout != null) {
+            timeout.cancel();
+        }
+        request.getEventListener().callCanceled(request);
+        if(mayInterruptIfRunning) {
+            request.cancel();
+        }
+        if(executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).remove(this);
+        }
+        return true;
+    }
+}
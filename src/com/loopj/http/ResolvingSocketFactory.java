@@ -0,0 +1,275 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * A socket factory which looks host names up through a {@link HostResolver}
+ * instead of leaving it to the platform, and tries each address in turn
+ * until one accepts the connection.
+ * <p>
+ * The wrapped factory is either a plain socket factory, or a
+ * {@link LayeredSocketFactory} such as the SSLSocketFactory, which is then
+ * used to start TLS on the connected socket, verifying the certificate
+ * against the host name rather than the address.
+ * <p>
+ * Sockets from {@link #createSocket()} close every attempt made on their
+ * behalf when they are closed, so aborting a request which is still
+ * connecting stops the attempts to all of the host's addresses.
+ */
+public class ResolvingSocketFactory implements LayeredSocketFactory {
+    private final SocketFactory delegate;
+    private final HostResolver resolver;
+
+    public ResolvingSocketFactory(SocketFactory delegate, HostResolver resolver) {
+        if(delegate == null) {
+            throw new IllegalArgumentException("Socket factory may not be null");
+        }
+        this.delegate = delegate;
+        this.resolver = resolver;
+    }
+
+    public SocketFactory getDelegate() {
+        return delegate;
+    }
+
+    public HostResolver getResolver() {
+        return resolver;
+    }
+
+    public Socket createSocket() throws IOException {
+        return new AbortableSocket();
+    }
+
+    public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params)
+            throws IOException, UnknownHostException, ConnectTimeoutException {
+        if(host == null) {
+            throw new IllegalArgumentException("Target host may not be null");
+        }
+        if(params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+
+        return connectSocket(sock, host, resolve(host, params), port, localAddress, localPort, params);
+    }
+
+    /**
+     * Tries each of a host's addresses in turn until one accepts the
+     * connection.
+     */
+    protected Socket connectSocket(Socket sock, String host, InetAddress[] addresses, int port, InetAddress localAddress, int localPort, HttpParams params)
+            throws IOException, ConnectTimeoutException {
+        IOException lastException = null;
+        for(int i = 0; i < addresses.length; i++) {
+            Socket socket = (i == 0 && sock != null) ? sock : createSocket();
+            link(sock, socket);
+            try {
+                connect(socket, new InetSocketAddress(addresses[i], port), localAddress, localPort, params);
+            } catch(SocketTimeoutException e) {
+                closeUnlessOwn(sock, socket);
+                lastException = new ConnectTimeoutException("Connect to " + host + "/" + addresses[i].getHostAddress() + " timed out");
+                continue;
+            } catch(IOException e) {
+                closeUnlessOwn(sock, socket);
+                lastException = e;
+                continue;
+            } finally {
+                unlink(sock, socket);
+            }
+            handOver(sock, socket, host);
+            return layer(socket, host, port, params);
+        }
+        if(sock != null) {
+            closeQuietly(sock);
+        }
+        throw lastException != null ? lastException : new UnknownHostException(host);
+    }
+
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
+        if(!(delegate instanceof LayeredSocketFactory)) {
+            throw new IllegalStateException("Socket factory does not support layering");
+        }
+        return ((LayeredSocketFactory) delegate).createSocket(socket, host, port, autoClose);
+    }
+
+    public boolean isSecure(Socket sock) throws IllegalArgumentException {
+        return delegate instanceof LayeredSocketFactory && delegate.isSecure(sock);
+    }
+
+    /**
+     * Looks up a host's addresses, telling the request's
+     * {@link EventListener} how long it took.
+     */
+    protected InetAddress[] resolve(String host, HttpParams params) throws UnknownHostException {
+        AsyncHttpRequest call = EventListener.getCall(params);
+        if(call == null) {
+            return resolver.resolve(host);
+        }
+        call.getEventListener().dnsStart(call, host);
+        InetAddress[] addresses = resolver.resolve(host);
+        call.getEventListener().dnsEnd(call, host, addresses);
+        return addresses;
+    }
+
+    /**
+     * Connects a plain socket to an address, honouring the connect and read
+     * timeouts and the local address in the parameters.
+     */
+    protected void connect(Socket socket, InetSocketAddress address, InetAddress localAddress, int localPort, HttpParams params) throws IOException {
+        AsyncHttpRequest call = EventListener.getCall(params);
+        if(call != null) {
+            call.getEventListener().connectStart(call, address);
+        }
+        try {
+            if(localAddress != null || localPort > 0) {
+                socket.bind(new InetSocketAddress(localAddress, Math.max(0, localPort)));
+            }
+            socket.setTcpNoDelay(HttpConnectionParams.getTcpNoDelay(params));
+            socket.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+            socket.connect(address, HttpConnectionParams.getConnectionTimeout(params));
+        } catch(IOException e) {
+            if(call != null) {
+                call.getEventListener().connectFailed(call, address, e);
+            }
+            throw e;
+        }
+        if(call != null) {
+            call.getEventListener().connectEnd(call, address);
+        }
+    }
+
+    /**
+     * Starts TLS on a connected socket if the wrapped factory is layered.
+     */
+    protected Socket layer(Socket socket, String host, int port, HttpParams params) throws IOException {
+        if(!(delegate instanceof LayeredSocketFactory)) {
+            return socket;
+        }
+        AsyncHttpRequest call = EventListener.getCall(params);
+        if(call != null) {
+            call.getEventListener().secureConnectStart(call, host);
+        }
+        Socket layered;
+        try {
+            layered = ((LayeredSocketFactory) delegate).createSocket(socket, host, port, true);
+        } catch(IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+        if(call != null) {
+            call.getEventListener().secureConnectEnd(call, host);
+        }
+        return layered;
+    }
+
+    static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch(IOException ignored) {}
+    }
+
+    /**
+     * Makes closing the socket HttpClient handed in, which is how requests
+     * are aborted, close another socket connecting on its behalf too.
+     * @throws IOException if the request was aborted already.
+     */
+    static void link(Socket sock, Socket attempt) throws IOException {
+        if(sock == null || attempt == sock) {
+            return;
+        }
+        if(sock instanceof AbortableSocket) {
+            ((AbortableSocket) sock).attach(attempt);
+        } else if(sock.isClosed()) {
+            closeQuietly(attempt);
+            throw new IOException("Connect aborted");
+        }
+    }
+
+    static void unlink(Socket sock, Socket attempt) {
+        if(sock instanceof AbortableSocket) {
+            ((AbortableSocket) sock).detach(attempt);
+        }
+    }
+
+    /**
+     * Called with a socket which connected in place of the one HttpClient
+     * handed in. Fails if the request was aborted meanwhile, and otherwise
+     * closes the unused socket.
+     */
+    static void handOver(Socket sock, Socket connected, String host) throws IOException {
+        if(sock == null || sock == connected) {
+            return;
+        }
+        if(sock.isClosed()) {
+            closeQuietly(connected);
+            throw new IOException("Connect to " + host + " aborted");
+        }
+        closeQuietly(sock);
+    }
+
+    // Only an abort closes the socket HttpClient handed in while connecting,
+    // so that it tells an abort apart from a failed attempt
+    static void closeUnlessOwn(Socket sock, Socket attempt) {
+        if(attempt != sock) {
+            closeQuietly(attempt);
+        }
+    }
+
+    private static class AbortableSocket extends Socket {
+        private final List<Socket> attempts = new ArrayList<Socket>();
+
+        synchronized void attach(Socket attempt) throws IOException {
+            if(isClosed()) {
+                closeQuietly(attempt);
+                throw new IOException("Connect aborted");
+            }
+            attempts.add(attempt);
+        }
+
+        synchronized void detach(Socket attempt) {
+            attempts.remove(attempt);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                for(Socket attempt : attempts) {
+                    closeQuietly(attempt);
+                }
+                attempts.clear();
+            }
+        }
+    }
+}
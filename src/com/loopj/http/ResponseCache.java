@@ -0,0 +1,54 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+/**
+ * A store for previously received responses, used by {@link AsyncHttpClient}
+ * to revalidate GET requests with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code> instead of downloading the full body again.
+ * <p>
+ * Implementations must be safe to call from multiple request threads at once.
+ *
+ * @see AsyncHttpClient#setResponseCache(ResponseCache)
+ */
+public interface ResponseCache {
+    /**
+     * Returns the entry stored for the given key, or null if there is none.
+     * @param key the cache key, usually the absolute request url.
+     */
+    public CacheEntry get(String key);
+
+    /**
+     * Stores an entry, replacing any existing entry for the same key.
+     * @param key the cache key, usually the absolute request url.
+     * @param entry the entry to store.
+     */
+    public void put(String key, CacheEntry entry);
+
+    /**
+     * Removes the entry stored for the given key, if any.
+     * @param key the cache key, usually the absolute request url.
+     */
+    public void remove(String key);
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear();
+}
@@ -31,13 +31,32 @@ import java.util.HashSet;
 
 import javax.net.ssl.SSLHandshakeException;
 
+import org.apache.http.HttpRequest;
 import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.HttpRequestRetryHandler;
-import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 
 public class RetryHandler implements HttpRequestRetryHandler {
+    /**
+     * Context attribute holding a request's deadline, as a Long in
+     * milliseconds since the epoch. Requests aren't retried if the retry
+     * couldn't start before the deadline.
+     */
+    public static final String DEADLINE = "com.loopj.http.deadline";
+
+    /**
+     * Context attribute holding the {@link CircuitBreaker} of the request.
+     * Requests to a host whose circuit isn't closed aren't retried.
+     */
+    public static final String CIRCUIT_BREAKER = "com.loopj.http.circuit-breaker";
+
+    /**
+     * Context attribute holding the host of the request as the circuit
+     * breaker knows it, scheme://host:port.
+     */
+    public static final String ROUTE = "com.loopj.http.route";
+
     private static final int RETRY_SLEEP_TIME_MILLIS = 1500;
     private static HashSet<Class<?>> exceptionWhitelist = new HashSet<Class<?>>();
     private static HashSet<Class<?>> exceptionBlacklist = new HashSet<Class<?>>();
@@ -68,9 +87,19 @@ public class RetryHandler implements HttpRequestRetryHandler {
         Boolean b = (Boolean) context.getAttribute(ExecutionContext.HTTP_REQ_SENT);
         boolean sent = (b != null && b.booleanValue());
 
+        Long deadline = (Long) context.getAttribute(DEADLINE);
+        CircuitBreaker circuitBreaker = (CircuitBreaker) context.getAttribute(CIRCUIT_BREAKER);
+        String route = (String) context.getAttribute(ROUTE);
+
         if(executionCount > maxRetries) {
             // Do not retry if over max retry count
             retry = false;
+        } else if(deadline != null && System.currentTimeMillis() + RETRY_SLEEP_TIME_MILLIS >= deadline.longValue()) {
+            // the retry would start after the deadline
+            retry = false;
+        } else if(circuitBreaker != null && route != null && circuitBreaker.getState(route) != CircuitState.CLOSED) {
+            // the host is failing, leave it alone until the breaker probes it
+            retry = false;
         } else if (exceptionBlacklist.contains(exception.getClass())) {
             // immediately cancel retry if the error is blacklisted
             retry = false;
@@ -84,13 +113,25 @@ public class RetryHandler implements HttpRequestRetryHandler {
 
         if(retry) {
             // resend all idempotent requests
-            HttpUriRequest currentReq = (HttpUriRequest) context.getAttribute( ExecutionContext.HTTP_REQUEST );
-            String requestType = currentReq.getMethod();
-            retry = !requestType.equals("POST");
+            HttpRequest currentReq = (HttpRequest) context.getAttribute( ExecutionContext.HTTP_REQUEST );
+            if(currentReq == null) {
+                // the request failed before it was set up, nothing was sent
+                retry = !sent;
+            } else {
+                String requestType = currentReq.getRequestLine().getMethod();
+                retry = !requestType.equals("POST");
+            }
         }
 
         if(retry) {
+            AsyncHttpRequest call = (AsyncHttpRequest) context.getAttribute(EventListener.CALL);
+            if(call != null) {
+                call.getEventListener().retrySleepStart(call, RETRY_SLEEP_TIME_MILLIS);
+            }
             sleep(RETRY_SLEEP_TIME_MILLIS);
+            if(call != null) {
+                call.getEventListener().retrySleepEnd(call);
+            }
         } else {
             exception.printStackTrace();
         }
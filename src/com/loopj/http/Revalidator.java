@@ -0,0 +1,61 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Refreshes stale cached responses in the background under
+ * {@link CachePolicy#STALE_WHILE_REVALIDATE}, one request per cache key at
+ * a time, so repeated hits on a stale URL don't queue up copies of the
+ * same refresh.
+ */
+final class Revalidator {
+    private final Executor executor;
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<String, Boolean>();
+
+    Revalidator(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the refresh for a cache key, unless one is already queued or
+     * running.
+     */
+    void revalidate(final String key, final Runnable refresh) {
+        if(inFlight.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh.run();
+                    } finally {
+                        inFlight.remove(key);
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            inFlight.remove(key);
+        }
+    }
+}
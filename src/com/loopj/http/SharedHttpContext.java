@@ -0,0 +1,60 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The client-wide {@link HttpContext}, holding attributes shared by every
+ * request such as the cookie store and credentials.
+ * <p>
+ * Each request runs with its own context which reads through to this one,
+ * so attribute lookups never contend on a lock and per-request attributes
+ * like the current request never leak between requests.
+ */
+class SharedHttpContext implements HttpContext {
+    private final ConcurrentHashMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+    public Object getAttribute(String id) {
+        if(id == null) {
+            throw new IllegalArgumentException("Id may not be null");
+        }
+        return attributes.get(id);
+    }
+
+    public void setAttribute(String id, Object obj) {
+        if(id == null) {
+            throw new IllegalArgumentException("Id may not be null");
+        }
+        if(obj != null) {
+            attributes.put(id, obj);
+        } else {
+            attributes.remove(id);
+        }
+    }
+
+    public Object removeAttribute(String id) {
+        if(id == null) {
+            throw new IllegalArgumentException("Id may not be null");
+        }
+        return attributes.remove(id);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells, so threads adding to it at the same
+ * time rarely touch the same cache line. Reading it sums the cells, which
+ * is slower, so it suits counters written often and read rarely.
+ */
+class StripedCounter {
+    // Cells are a cache line apart, assuming 64 byte lines
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long delta) {
+        // Thread ids are handed out in order, so they spread evenly
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for(int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    // One stripe per processor, rounded up to a power of two
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while(stripes < processors) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
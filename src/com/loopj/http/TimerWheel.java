@@ -0,0 +1,228 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A hashed timer wheel running any number of timeouts on a single thread.
+ * <p>
+ * Scheduling and cancelling a timeout take constant time, which suits
+ * timeouts that are set for every request and almost always cancelled.
+ * Timeouts fire on the tick after their deadline, so never early and at
+ * most one tick late. Cancelled timeouts are dropped from the wheel on
+ * the next tick, and while no live timeouts are pending the thread sleeps
+ * until the next one is scheduled.
+ * <p>
+ * All engines share the wheel from {@link #getDefault()}, whose thread is
+ * started by the first timeout scheduled.
+ */
+final class TimerWheel {
+    private static final long DEFAULT_TICK_MILLIS = 10;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final LinkedList<Timeout>[] wheel;
+    private final int mask;
+    private final long startTime = System.currentTimeMillis();
+    private final BlockingQueue<Timeout> pending = new LinkedBlockingQueue<Timeout>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private volatile Thread worker;
+
+    // Only used by the worker thread
+    private long lastTick = -1;
+    private int size;
+
+    TimerWheel() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMillis the resolution of the timer.
+     * @param wheelSize the number of slots, a power of two.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(long tickMillis, int wheelSize) {
+        if(Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.wheel = new LinkedList[wheelSize];
+        for(int i = 0; i < wheelSize; i++) {
+            wheel[i] = new LinkedList<Timeout>();
+        }
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Returns the wheel shared by all engines.
+     */
+    static TimerWheel getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Runs a task on the timer thread after a delay. Tasks must be quick,
+     * since they hold up all other timeouts.
+     * @return the timeout, for cancelling it.
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task, System.currentTimeMillis() + Math.max(0, delayMillis));
+        pending.add(timeout);
+        if(worker == null) {
+            start();
+        }
+        return timeout;
+    }
+
+    private synchronized void start() {
+        if(worker != null) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                runWorker();
+            }
+        }, "AsyncHttpClient timer");
+        thread.setDaemon(true);
+        thread.start();
+        worker = thread;
+    }
+
+    private void runWorker() {
+        try {
+            while(true) {
+                purgeCancelled();
+                if(size == 0) {
+                    // Nothing to tick for, wait for the next timeout
+                    Timeout timeout = pending.take();
+                    lastTick = currentTick() - 1;
+                    add(timeout);
+                }
+                Timeout timeout;
+                while((timeout = pending.poll()) != null) {
+                    add(timeout);
+                }
+                purgeCancelled();
+
+                long due = currentTick() - 1;
+                while(lastTick < due && size > 0) {
+                    lastTick++;
+                    expire(wheel[(int) (lastTick & mask)]);
+                }
+                if(size == 0) {
+                    continue;
+                }
+                // Sleep until the next slot is due
+                long wait = startTime + (lastTick + 2) * tickMillis - System.currentTimeMillis();
+                if(wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+        } catch(InterruptedException e) {
+            // Daemon thread, exits with the process
+        }
+    }
+
+    private long currentTick() {
+        return (System.currentTimeMillis() - startTime) / tickMillis;
+    }
+
+    private void add(Timeout timeout) {
+        if(timeout.cancelled) {
+            return;
+        }
+        long tick = Math.max((timeout.deadline - startTime) / tickMillis, lastTick + 1);
+        timeout.rounds = (tick - lastTick - 1) / wheel.length;
+        timeout.slot = wheel[(int) (tick & mask)];
+        timeout.slot.add(timeout);
+        size++;
+    }
+
+    // Drops timeouts cancelled since the last tick, so a wheel holding only
+    // cancelled timeouts goes back to sleep instead of ticking them out.
+    private void purgeCancelled() {
+        Timeout timeout;
+        while((timeout = cancelled.poll()) != null) {
+            if(timeout.slot != null) {
+                timeout.slot.remove(timeout);
+                timeout.slot = null;
+                size--;
+            }
+        }
+    }
+
+    private void expire(LinkedList<Timeout> slot) {
+        for(Iterator<Timeout> it = slot.iterator(); it.hasNext();) {
+            Timeout timeout = it.next();
+            if(timeout.cancelled) {
+                it.remove();
+                timeout.slot = null;
+                size--;
+            } else if(timeout.rounds <= 0) {
+                it.remove();
+                timeout.slot = null;
+                size--;
+                try {
+                    timeout.task.run();
+                } catch(RuntimeException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    private static final class DefaultHolder {
+        static final TimerWheel INSTANCE = new TimerWheel();
+    }
+
+    static final class Timeout {
+        final TimerWheel timer;
+        final Runnable task;
+        final long deadline;
+        volatile boolean cancelled;
+
+        // Only used by the worker thread
+        long rounds;
+        LinkedList<Timeout> slot;
+
+        Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stops the timeout from firing, if it hasn't already.
+         */
+        void cancel() {
+            if(!cancelled) {
+                cancelled = true;
+                timer.cancelled.add(this);
+            }
+        }
+    }
+}
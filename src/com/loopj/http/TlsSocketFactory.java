@@ -0,0 +1,278 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * A TLS socket factory which resumes sessions across connections.
+ * <p>
+ * Every socket is created from one SSLContext with the peer's host and
+ * port, so its client session cache, keyed by host and port, is shared by
+ * every connection made through the factory, and therefore by every client
+ * of an {@link HttpEngine}. The cache is bounded in size and age. Session
+ * tickets can be turned on where the platform supports them, which lets
+ * servers resume sessions without keeping state per client.
+ * <p>
+ * The factory counts full and resumed handshakes, so the resumption rate
+ * can be checked with {@link #getResumptionRate()}.
+ */
+public class TlsSocketFactory implements LayeredSocketFactory {
+    private static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+    private static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 60 * 60;
+
+    private final SSLContext sslContext;
+    private X509HostnameVerifier hostnameVerifier = SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+    private volatile boolean useSessionTickets;
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * Creates a factory with its own SSLContext using the platform's trusted
+     * certificates, caching up to 64 sessions for an hour.
+     */
+    public TlsSocketFactory() {
+        this(createDefaultContext(), DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Creates a factory using the given SSLContext.
+     * @param sslContext an initialized SSLContext, which shouldn't be shared with other socket factories.
+     * @param sessionCacheSize the maximum number of sessions to keep.
+     * @param sessionTimeoutSeconds how long a session may be resumed for.
+     */
+    public TlsSocketFactory(SSLContext sslContext, int sessionCacheSize, int sessionTimeoutSeconds) {
+        this.sslContext = sslContext;
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if(sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
+    }
+
+    private static SSLContext createDefaultContext() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return context;
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("TLS is not available: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the verifier used to check the server certificate against the
+     * host name. By default, the browser compatible verifier is used.
+     */
+    public TlsSocketFactory setHostnameVerifier(X509HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+        return this;
+    }
+
+    /**
+     * Turns RFC 5077 session tickets on or off. Only has an effect on
+     * platforms whose sockets support it, such as Android.
+     */
+    public TlsSocketFactory setUseSessionTickets(boolean useSessionTickets) {
+        this.useSessionTickets = useSessionTickets;
+        return this;
+    }
+
+    public Socket createSocket() throws IOException {
+        return new Socket();
+    }
+
+    public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params)
+            throws IOException, UnknownHostException, ConnectTimeoutException {
+        if(host == null) {
+            throw new IllegalArgumentException("Target host may not be null");
+        }
+        if(params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+
+        Socket socket = sock != null ? sock : createSocket();
+        if(localAddress != null || localPort > 0) {
+            socket.bind(new InetSocketAddress(localAddress, Math.max(0, localPort)));
+        }
+        socket.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+        try {
+            socket.connect(new InetSocketAddress(host, port), HttpConnectionParams.getConnectionTimeout(params));
+        } catch(SocketTimeoutException e) {
+            throw new ConnectTimeoutException("Connect to " + host + ":" + port + " timed out");
+        }
+        return createSocket(socket, host, port, true);
+    }
+
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
+        return createSocket(socket, host, port, autoClose, null);
+    }
+
+    /**
+     * Starts TLS on a connected socket, offering the given application
+     * protocols through ALPN (RFC 7301) where the platform supports it, that
+     * is on Java 9 and later and on Android 5.0 and later. The protocol the
+     * server picked is returned by {@link #getApplicationProtocol(SSLSocket)}.
+     * @param applicationProtocols the protocols to offer, most preferred first, or null not to use ALPN.
+     */
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose, String[] applicationProtocols)
+            throws IOException, UnknownHostException {
+        // Passing the host and port lets the session cache find an earlier session
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+        if(useSessionTickets) {
+            enableSessionTickets(sslSocket);
+        }
+        if(applicationProtocols != null) {
+            setApplicationProtocols(sslSocket, applicationProtocols);
+        }
+
+        try {
+            long handshakeStart = System.currentTimeMillis();
+            sslSocket.startHandshake();
+            SSLSession session = sslSocket.getSession();
+            hostnameVerifier.verify(host, sslSocket);
+
+            // A resumed session was created by an earlier handshake
+            handshakes.incrementAndGet();
+            if(session.getCreationTime() < handshakeStart) {
+                resumedHandshakes.incrementAndGet();
+            }
+        } catch(IOException e) {
+            try {
+                sslSocket.close();
+            } catch(IOException ignored) {}
+            throw e;
+        }
+        return sslSocket;
+    }
+
+    public boolean isSecure(Socket sock) throws IllegalArgumentException {
+        if(!(sock instanceof SSLSocket)) {
+            throw new IllegalArgumentException("Socket not created by this factory");
+        }
+        if(sock.isClosed()) {
+            throw new IllegalArgumentException("Socket is closed");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of completed handshakes, full or resumed.
+     */
+    public long getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * Returns the number of handshakes which resumed an earlier session.
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Returns the fraction of handshakes which resumed an earlier session.
+     */
+    public double getResumptionRate() {
+        long total = handshakes.get();
+        return total > 0 ? (double) resumedHandshakes.get() / total : 0;
+    }
+
+    /**
+     * Returns the application protocol negotiated through ALPN, or null if
+     * none was, or if the platform doesn't support ALPN.
+     */
+    public static String getApplicationProtocol(SSLSocket socket) {
+        try {
+            Method method = SSLSocket.class.getMethod("getApplicationProtocol");
+            String protocol = (String) method.invoke(socket);
+            return protocol != null && protocol.length() > 0 ? protocol : null;
+        } catch(Exception e) {
+            // not supported on this platform
+        }
+        try {
+            Method method = socket.getClass().getMethod("getAlpnSelectedProtocol");
+            byte[] protocol = (byte[]) method.invoke(socket);
+            return protocol != null ? new String(protocol, "US-ASCII") : null;
+        } catch(Exception e) {
+            // not supported on this platform
+        }
+        return null;
+    }
+
+    // Java 9 and Android 10 have a public API, older Android versions only
+    // have one on their OpenSSL sockets
+    private static void setApplicationProtocols(SSLSocket socket, String[] protocols) {
+        try {
+            SSLParameters parameters = socket.getSSLParameters();
+            Method method = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            method.invoke(parameters, (Object) protocols);
+            socket.setSSLParameters(parameters);
+            return;
+        } catch(Exception e) {
+            // not supported on this platform
+        }
+        try {
+            // The wire format: each protocol name prefixed with its length
+            ByteArrayOutputStream wire = new ByteArrayOutputStream();
+            for(String protocol : protocols) {
+                byte[] name = protocol.getBytes("US-ASCII");
+                wire.write(name.length);
+                wire.write(name);
+            }
+            Method method = socket.getClass().getMethod("setAlpnProtocols", byte[].class);
+            method.invoke(socket, wire.toByteArray());
+        } catch(Exception e) {
+            // not supported on this platform
+        }
+    }
+
+    // Android's OpenSSL sockets support tickets, but not through a public API
+    private static void enableSessionTickets(SSLSocket socket) {
+        try {
+            Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socket, true);
+        } catch(Exception e) {
+            // not supported on this platform
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
 
+import com.loopj.http.AsyncBinaryResponseHandler;
+
 /**
  * Used to intercept and handle the responses from requests made using
  * {@link AsyncHttpClient}. Receives response body as byte array with a 
@@ -54,7 +56,7 @@ import java.io.IOException;
  * });
  * </pre>
  */
-public class AndroidBinaryResponseHandler extends AndroidResponseHandler {
+public class AndroidBinaryResponseHandler extends AndroidResponseHandler implements AsyncBinaryResponseHandler {
     // Allow images by default
     private static String[] mAllowedContentTypes = new String[] {
         "image/jpeg",
@@ -112,7 +114,7 @@ public class AndroidBinaryResponseHandler extends AndroidResponseHandler {
     // Pre-processing of messages (executes in background threadpool thread)
     //
 
-    protected void sendSuccessMessage(int statusCode, byte[] responseBody) {
+    public void sendSuccessMessage(int statusCode, byte[] responseBody) {
         sendMessage(obtainMessage(SUCCESS_MESSAGE, new Object[]{statusCode, responseBody}));
     }
 
@@ -151,6 +153,12 @@ public class AndroidBinaryResponseHandler extends AndroidResponseHandler {
     }
 
     // Interface to AsyncHttpRequest
+    public boolean acceptsResponse(HttpResponse response) {
+        Header[] contentTypeHeaders = response.getHeaders("Content-Type");
+        return response.getStatusLine().getStatusCode() < 300
+                && contentTypeHeaders.length == 1 && isAllowedContentType(contentTypeHeaders[0]);
+    }
+
     public void sendResponseMessage(HttpResponse response) {
         StatusLine status = response.getStatusLine();
         Header[] contentTypeHeaders = response.getHeaders("Content-Type");
@@ -160,14 +168,7 @@ public class AndroidBinaryResponseHandler extends AndroidResponseHandler {
             sendFailureMessage(new HttpResponseException(status.getStatusCode(), "None, or more than one, Content-Type Header found!"), responseBody);
             return;
         }
-        Header contentTypeHeader = contentTypeHeaders[0];
-        boolean foundAllowedContentType = false;
-        for(String anAllowedContentType : mAllowedContentTypes) {
-            if(anAllowedContentType.equals(contentTypeHeader.getValue())) {
-                foundAllowedContentType = true;
-            }
-        }
-        if(!foundAllowedContentType) {
+        if(!isAllowedContentType(contentTypeHeaders[0])) {
             //Content-Type not in allowed list, ABORT!
             sendFailureMessage(new HttpResponseException(status.getStatusCode(), "Content-Type not allowed!"), responseBody);
             return;
@@ -189,4 +190,13 @@ public class AndroidBinaryResponseHandler extends AndroidResponseHandler {
             sendSuccessMessage(status.getStatusCode(), responseBody);
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isAllowedContentType(Header contentTypeHeader) {
+        for(String anAllowedContentType : mAllowedContentTypes) {
+            if(anAllowedContentType.equals(contentTypeHeader.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
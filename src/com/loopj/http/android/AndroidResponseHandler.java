@@ -32,7 +32,10 @@ import android.os.Looper;
 import android.os.Message;
 
 import com.loopj.http.AsyncHttpClient;
+import com.loopj.http.AsyncHttpRequest;
 import com.loopj.http.AsyncHttpResponseHandler;
+import com.loopj.http.CacheStatus;
+import com.loopj.http.EventListener;
 
 /**
  * Used to intercept and handle the responses from requests made using 
@@ -69,13 +72,17 @@ import com.loopj.http.AsyncHttpResponseHandler;
  * });
  * </pre>
  */
-public class AndroidResponseHandler implements AsyncHttpResponseHandler {
+public class AndroidResponseHandler implements AsyncHttpResponseHandler, AsyncHttpResponseHandler.CacheStatusAware, EventListener.DeliveryAware {
     protected static final int SUCCESS_MESSAGE = 0;
     protected static final int FAILURE_MESSAGE = 1;
     protected static final int START_MESSAGE = 2;
     protected static final int FINISH_MESSAGE = 3;
+    protected static final int CACHE_STATUS_MESSAGE = 4;
 
     private Handler handler;
+    private CacheStatus cacheStatus = CacheStatus.NETWORK;
+    // The request the current thread sends messages for, if it is timed
+    private final ThreadLocal<CallMessage> sending = new ThreadLocal<CallMessage>();
 
     /**
      * Creates a new AndroidResponseHandler
@@ -85,7 +92,7 @@ public class AndroidResponseHandler implements AsyncHttpResponseHandler {
         if(Looper.myLooper() != null) {
             handler = new Handler(){
                 public void handleMessage(Message msg){
-                    AndroidResponseHandler.this.handleMessage(msg);
+                    deliver(msg);
                 }
             };
         }
@@ -138,6 +145,21 @@ public class AndroidResponseHandler implements AsyncHttpResponseHandler {
         onFailure(error);
     }
 
+    /**
+     * Fired before the response is delivered for requests made with a
+     * {@link com.loopj.http.ResponseCache}, override to handle in your own code
+     * @param status whether the response came from the network, or was fresh, stale or revalidated
+     */
+    public void onCacheStatus(CacheStatus status) {}
+
+    /**
+     * Returns where the last delivered response came from. Can be called
+     * from {@link #onSuccess(int, String)} to tell cached results apart.
+     */
+    public CacheStatus getCacheStatus() {
+        return cacheStatus;
+    }
+
 
     //
     // Pre-processing of messages (executes in background threadpool thread)
@@ -163,6 +185,10 @@ public class AndroidResponseHandler implements AsyncHttpResponseHandler {
         sendMessage(obtainMessage(FINISH_MESSAGE, null));
     }
 
+    public void sendCacheStatusMessage(CacheStatus status) {
+        sendMessage(obtainMessage(CACHE_STATUS_MESSAGE, status));
+    }
+
 
     //
     // Pre-processing of messages (in original calling thread, typically the UI thread)
@@ -197,6 +223,10 @@ public class AndroidResponseHandler implements AsyncHttpResponseHandler {
             case FINISH_MESSAGE:
                 onFinish();
                 break;
+            case CACHE_STATUS_MESSAGE:
+                cacheStatus = (CacheStatus)msg.obj;
+                onCacheStatus(cacheStatus);
+                break;
         }
     }
 
@@ -204,11 +234,43 @@ public class AndroidResponseHandler implements AsyncHttpResponseHandler {
         if(handler != null){
             handler.sendMessage(msg);
         } else {
+            deliver(msg);
+        }
+    }
+
+    // Times the delivery of responses, for the request's EventListener
+    private void deliver(Message msg) {
+        if(!(msg.obj instanceof CallMessage)) {
             handleMessage(msg);
+            return;
+        }
+        CallMessage tagged = (CallMessage) msg.obj;
+        msg.obj = tagged.obj;
+        boolean timed = msg.what != START_MESSAGE && msg.what != FINISH_MESSAGE && msg.what != CACHE_STATUS_MESSAGE;
+        if(timed) {
+            tagged.listener.deliveryStart(tagged.call);
+        }
+        handleMessage(msg);
+        if(timed) {
+            tagged.listener.deliveryEnd(tagged.call);
+        }
+    }
+
+    public void setEventListener(EventListener listener, AsyncHttpRequest call) {
+        if(call != null) {
+            sending.set(new CallMessage(listener, call, null));
+        } else {
+            sending.remove();
         }
     }
 
     protected Message obtainMessage(int responseMessage, Object response) {
+        // Messages carry the request they belong to, as a handler may be
+        // shared by requests running at the same time
+        CallMessage current = sending.get();
+        if(current != null) {
+            response = new CallMessage(current.listener, current.call, response);
+        }
         Message msg = null;
         if(handler != null){
             msg = this.handler.obtainMessage(responseMessage, response);
@@ -241,4 +303,16 @@ public class AndroidResponseHandler implements AsyncHttpResponseHandler {
             sendSuccessMessage(status.getStatusCode(), responseBody);
         }
     }
+
+    private static final class CallMessage {
+        final EventListener listener;
+        final AsyncHttpRequest call;
+        final Object obj;
+
+        CallMessage(EventListener listener, AsyncHttpRequest call, Object obj) {
+            this.listener = listener;
+            this.call = call;
+            this.obj = obj;
+        }
+    }
 }
\ No newline at end of file
@@ -23,14 +23,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.ClientCookie;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
 
 import com.loopj.http.AsyncHttpClient;
+import com.loopj.http.PersistentCookieJar;
 import com.loopj.http.SerializableCookie;
 
 
@@ -47,105 +48,66 @@ import android.text.TextUtils;
  * Instances of this class are designed to be used with
  * {@link AsyncHttpClient#setCookieStore}, but can also be used with a 
  * regular old apache HttpClient/HttpContext if you prefer.
+ * <p>
+ * This is a {@link PersistentCookieJar} backed by a
+ * {@link PreferencesCookieStorage}, see there for write batching and expiry.
+ * Stores written by older versions, with one hex encoded entry per cookie,
+ * are converted the first time they are opened.
  */
-public class PersistentCookieStore implements CookieStore {
-    private static final String COOKIE_PREFS = "CookiePrefsFile";
+public class PersistentCookieStore extends PersistentCookieJar {
     private static final String COOKIE_NAME_STORE = "names";
     private static final String COOKIE_NAME_PREFIX = "cookie_";
 
-    private final ConcurrentHashMap<String, Cookie> cookies;
-    private final SharedPreferences cookiePrefs;
-
     /**
-     * Construct a persistent cookie store.
+     * Construct a persistent cookie store which writes every change to disk
+     * immediately.
      */
     public PersistentCookieStore(Context context) {
-        cookiePrefs = context.getSharedPreferences(COOKIE_PREFS, 0);
-        cookies = new ConcurrentHashMap<String, Cookie>();
-
-        // Load any previously stored cookies into the store
-        String storedCookieNames = cookiePrefs.getString(COOKIE_NAME_STORE, null);
-        if(storedCookieNames != null) {
-            String[] cookieNames = TextUtils.split(storedCookieNames, ",");
-            for(String name : cookieNames) {
-                String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
-                if(encodedCookie != null) {
-                    Cookie decodedCookie = decodeCookie(encodedCookie);
-                    if(decodedCookie != null) {
-                        cookies.put(name, decodedCookie);
-                    }
-                }
-            }
-
-            // Clear out expired cookies
-            clearExpired(new Date());
-        }
+        this(context, 0);
     }
 
-    @Override
-    public void addCookie(Cookie cookie) {
-        String name = cookie.getName();
+    /**
+     * Construct a persistent cookie store which batches changes and writes
+     * them on a background thread.
+     * @param flushDelayMillis how long to collect changes before writing them, or 0 to write every change immediately.
+     */
+    public PersistentCookieStore(Context context, long flushDelayMillis) {
+        super(new PreferencesCookieStorage(context), flushDelayMillis);
 
-        // Save cookie into local store, or remove if expired
-        if(!cookie.isExpired(new Date())) {
-            cookies.put(name, cookie);
-        } else {
-            cookies.remove(name);
+        SharedPreferences cookiePrefs = context.getSharedPreferences(PreferencesCookieStorage.COOKIE_PREFS, 0);
+        String storedCookieNames = cookiePrefs.getString(COOKIE_NAME_STORE, null);
+        if(storedCookieNames != null) {
+            migrateLegacyCookies(cookiePrefs, storedCookieNames);
         }
-
-        // Save cookie into persistent store
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
-        prefsWriter.putString(COOKIE_NAME_PREFIX + name, encodeCookie(new SerializableCookie(cookie)));
-        prefsWriter.commit();
     }
 
-    @Override
-    public void clear() {
-        // Clear cookies from local store
-        cookies.clear();
-
-        // Clear cookies from persistent store
+    // Converts the one-entry-per-cookie hex format written by older versions
+    private void migrateLegacyCookies(SharedPreferences cookiePrefs, String storedCookieNames) {
+        List<Cookie> legacyCookies = new ArrayList<Cookie>();
         SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        for(String name : cookies.keySet()) {
+        for(String name : TextUtils.split(storedCookieNames, ",")) {
+            String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
             prefsWriter.remove(COOKIE_NAME_PREFIX + name);
-        }
-        prefsWriter.remove(COOKIE_NAME_STORE);
-        prefsWriter.commit();
-    }
-
-    @Override
-    public boolean clearExpired(Date date) {
-        boolean clearedAny = false;
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-
-        for(ConcurrentHashMap.Entry<String, Cookie> entry : cookies.entrySet()) {
-            String name = entry.getKey();
-            Cookie cookie = entry.getValue();
-            if(cookie.isExpired(date)) {
-                // Clear cookies from local store
-                cookies.remove(name);
-
-                // Clear cookies from persistent store
-                prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+            if(encodedCookie == null) {
+                continue;
+            }
 
-                // We've cleared at least one
-                clearedAny = true;
+            Cookie decodedCookie = decodeCookie(encodedCookie);
+            if(decodedCookie != null) {
+                // The old format didn't record whether the domain was set
+                // explicitly, keep matching subdomains as before
+                if(decodedCookie instanceof BasicClientCookie) {
+                    ((BasicClientCookie) decodedCookie).setAttribute(ClientCookie.DOMAIN_ATTR, decodedCookie.getDomain());
+                }
+                legacyCookies.add(decodedCookie);
             }
         }
+        prefsWriter.remove(COOKIE_NAME_STORE);
 
-        // Update names in persistent store
-        if(clearedAny) {
-            prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
-        }
+        // Save the converted cookies before dropping the old entries
+        addCookies(legacyCookies);
+        flush();
         prefsWriter.commit();
-
-        return clearedAny;
-    }
-
-    @Override
-    public List<Cookie> getCookies() {
-        return new ArrayList<Cookie>(cookies.values());
     }
 
 
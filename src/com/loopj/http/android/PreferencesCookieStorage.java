@@ -0,0 +1,68 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.http.android;
+
+import java.io.IOException;
+
+import com.loopj.http.CookieStorage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+/**
+ * A {@link CookieStorage} which keeps the cookie jar Base64 encoded in
+ * {@link SharedPreferences}.
+ */
+public class PreferencesCookieStorage implements CookieStorage {
+    static final String COOKIE_PREFS = "CookiePrefsFile";
+    private static final String COOKIE_BLOB_STORE = "cookies";
+
+    private final SharedPreferences cookiePrefs;
+
+    public PreferencesCookieStorage(Context context) {
+        this(context.getSharedPreferences(COOKIE_PREFS, 0));
+    }
+
+    public PreferencesCookieStorage(SharedPreferences cookiePrefs) {
+        this.cookiePrefs = cookiePrefs;
+    }
+
+    public byte[] load() throws IOException {
+        String storedCookies = cookiePrefs.getString(COOKIE_BLOB_STORE, null);
+        if(storedCookies == null) {
+            return null;
+        }
+        try {
+            return Base64.decode(storedCookies, Base64.NO_WRAP);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Invalid stored cookies: " + e.getMessage());
+        }
+    }
+
+    public void save(byte[] blob) throws IOException {
+        if(!cookiePrefs.edit().putString(COOKIE_BLOB_STORE, Base64.encodeToString(blob, Base64.NO_WRAP)).commit()) {
+            throw new IOException("Failed to write cookie preferences");
+        }
+    }
+
+    public void clear() throws IOException {
+        cookiePrefs.edit().remove(COOKIE_BLOB_STORE).commit();
+    }
+}